@@ -0,0 +1,194 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** Keeps the checkpoints of a network in a directory: a full base snapshot, and the delta
+ *  checkpoints that were taken after it (see Network.saveDelta). Taking a delta checkpoint costs
+ *  only as much as the users that changed since the previous checkpoint.
+ *
+ *  A compactor merges the base and the deltas into a new base. It works only on the files
+ *  (it loads the base into a private network and applies the deltas to it), so it never blocks
+ *  the readers or the writers of the live network, and it can run in a background thread.
+ *
+ *  Files: base-N.snap is a full snapshot that contains all the deltas up to number N,
+ *  and delta-N.snap is delta number N. Deltas are numbered from 1. */
+public class CheckpointStore implements Closeable {
+
+    private final Path dir;
+    private long lastDelta;  // number of the last delta that was written
+    private boolean hasBase; // true if a base snapshot exists
+    private ScheduledExecutorService compactor; // runs compact in the background, if started
+
+    // Guards the set of files: swapping a new base in and deleting merged files happens
+    // under this lock, so that load never sees a half-compacted directory.
+    private final Object filesLock = new Object();
+
+    /** Opens the checkpoint store in the given directory, creating the directory if needed. */
+    public CheckpointStore(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        long[] bases = list("base-");
+        long[] deltas = list("delta-");
+        hasBase = bases.length > 0;
+        lastDelta = Math.max(bases.length > 0 ? bases[bases.length - 1] : 0,
+                             deltas.length > 0 ? deltas[deltas.length - 1] : 0);
+    }
+
+    /** Takes a checkpoint of the given network: a full snapshot if the store is empty,
+     *  otherwise a delta with the users that changed since the previous checkpoint.
+     *  Must be called by the thread that mutates the network. */
+    public synchronized void checkpoint(Network network) throws IOException {
+        if (!hasBase) {
+            write(network, "base-" + lastDelta, true);
+            hasBase = true;
+        } else {
+            write(network, "delta-" + (lastDelta + 1), false);
+            lastDelta++;
+        }
+    }
+
+    // Writes a snapshot or a delta into a temporary file, and then renames it, so a crash
+    // never leaves a partial checkpoint behind.
+    private void write(Network network, String name, boolean full) throws IOException {
+        Path tmp = dir.resolve(name + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            if (full) network.checkpointBase(out);
+            else network.saveDelta(out);
+        }
+        Files.move(tmp, dir.resolve(name + ".snap"), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Loads the network: the newest base, and then the deltas that were taken after it, in order.
+     *  If the store is empty, returns an empty network with the given capacity. */
+    public Network load(int maxUserCount) throws IOException {
+        synchronized (filesLock) {
+            long[] bases = list("base-");
+            Network network;
+            long from = 0;
+            if (bases.length == 0) {
+                network = new Network(maxUserCount);
+            } else {
+                from = bases[bases.length - 1];
+                try (InputStream in = Files.newInputStream(file("base-", from))) {
+                    network = Network.load(in);
+                }
+            }
+            for (long n : list("delta-")) {
+                if (n <= from) continue;
+                try (InputStream in = Files.newInputStream(file("delta-", n))) {
+                    network.applyDelta(in);
+                }
+            }
+            return network;
+        }
+    }
+
+    /** Merges the newest base and all the deltas after it into a new base, and deletes the merged files.
+     *  Deltas that are written while the compaction runs are kept, and are applied after the new base.
+     *  Returns the number of deltas that were merged. */
+    public int compact() throws IOException {
+        long[] bases, deltas;
+        synchronized (filesLock) {
+            bases = list("base-");
+            deltas = list("delta-");
+        }
+        if (bases.length == 0) return 0;
+        long from = bases[bases.length - 1];
+        Network merged;
+        try (InputStream in = Files.newInputStream(file("base-", from))) {
+            merged = Network.load(in);
+        }
+        long to = from;
+        int count = 0;
+        for (long n : deltas) {
+            if (n <= from) continue;
+            try (InputStream in = Files.newInputStream(file("delta-", n))) {
+                merged.applyDelta(in);
+            }
+            to = n;
+            count++;
+        }
+        if (count == 0) return 0;
+
+        Path tmp = dir.resolve("base-" + to + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            merged.save(out);
+        }
+        synchronized (filesLock) {
+            Files.move(tmp, file("base-", to), StandardCopyOption.ATOMIC_MOVE);
+            for (long n : bases) {
+                Files.deleteIfExists(file("base-", n));
+            }
+            for (long n : deltas) {
+                if (n <= to) Files.deleteIfExists(file("delta-", n));
+            }
+        }
+        return count;
+    }
+
+    /** Starts compacting in a background thread, every given number of milliseconds. */
+    public synchronized void startCompactor(long periodMillis) {
+        if (compactor != null) return;
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "checkpoint-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                System.out.println("\n...Compaction failed: " + e.getMessage() + "...");
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops the background compactor, waiting for a running compaction to finish. */
+    public void close() throws IOException {
+        ScheduledExecutorService c;
+        synchronized (this) {
+            c = compactor;
+            compactor = null;
+        }
+        if (c == null) return;
+        c.shutdown();
+        try {
+            c.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Path file(String prefix, long n) {
+        return dir.resolve(prefix + n + ".snap");
+    }
+
+    // Returns the numbers of the files with the given prefix, in increasing order
+    private long[] list(String prefix) throws IOException {
+        long[] numbers = new long[8];
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*.snap")) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                try {
+                    long n = Long.parseLong(name.substring(prefix.length(), name.length() - ".snap".length()));
+                    if (count == numbers.length) numbers = Arrays.copyOf(numbers, 2 * count);
+                    numbers[count++] = n;
+                } catch (NumberFormatException e) {
+                    // not one of our files
+                }
+            }
+        }
+        numbers = Arrays.copyOf(numbers, count);
+        Arrays.sort(numbers);
+        return numbers;
+    }
+}
@@ -0,0 +1,266 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Communities of the follow graph, taken as undirected, found by label propagation: every user starts
+ *  with a label of its own, and then repeatedly takes the label that most of its neighbors have, until
+ *  no label changes. Groups of users who are densely connected among themselves end up sharing a label.
+ *
+ *  The updates are asynchronous: the users, in blocks of consecutive users taken in a random order
+ *  (fixed by the seed), are split between the tasks of a ForkJoinPool, and every task updates its users
+ *  in place, so a user sees the labels that its neighbors took earlier in the same iteration. Only the
+ *  users with a neighbor whose label changed since their last update are looked at again. A task may read a label that another task is
+ *  writing at the same time; it then sees either the old label or the new one, which the algorithm
+ *  tolerates. The labels of the neighbors are counted in a small open-addressing map of ints, one per
+ *  thread, that is cleared after every user. Among equally common labels, a user keeps its own label if
+ *  it is one of them, and otherwise takes the one with the smallest hash, so no label is favored.
+ *
+ *  With one thread the result depends only on the graph and the seed; with more threads it may differ
+ *  from run to run. */
+public class Communities {
+
+    /** The maximal number of iterations, in case the labels keep changing. */
+    public static final int MAX_ITERATIONS = 50;
+
+    private static final int BLOCK_SIZE = 16;  // consecutive users that are updated together, for locality
+    private static final int LEAF_BLOCKS = 256; // blocks per task
+
+    // The label counts of every thread, reused by all the users it updates
+    private static final ThreadLocal<LabelCounts> counts = new ThreadLocal<LabelCounts>();
+
+    private final NetworkGraph graph;
+    private final int[] labels;       // labels[u] is the community of user u, numbered from 0 in order of their smallest users
+    private final int[] memberStart;  // the users of community c are members[memberStart[c]..memberStart[c+1]), in increasing order
+    private final int[] members;
+    private final int iterations;
+
+    private Communities(NetworkGraph graph, long seed, ForkJoinPool pool) {
+        this.graph = graph;
+        int n = graph.n;
+        int[] label = new int[n];
+        for (int u = 0; u < n; u++) label[u] = u;
+        int[] blocks = new int[(n + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        for (int b = 0; b < blocks.length; b++) blocks[b] = b;
+        Random random = new Random(seed);
+        for (int k = blocks.length - 1; k > 0; k--) {
+            int j = random.nextInt(k + 1);
+            int t = blocks[k]; blocks[k] = blocks[j]; blocks[j] = t;
+        }
+        // active[u] is 1 if u has to be updated in this iteration; a change marks the neighbors in next
+        byte[] active = new byte[n];
+        byte[] next = new byte[n];
+        Arrays.fill(active, (byte) 1);
+        int[] start = graph.neighborStart();
+        int[] neighbors = graph.neighbors();
+        int iteration = 0;
+        while (n > 0 && iteration < MAX_ITERATIONS) {
+            iteration++;
+            int changed = pool.invoke(new PropagateTask(start, neighbors, label, blocks, active, next, mix(seed + iteration), 0, blocks.length));
+            byte[] t = active; active = next; next = t; // every task cleared the flags of its users
+            if (changed == 0) break;
+        }
+        iterations = iteration;
+
+        // Renumbers the labels densely, in order of the smallest users that have them
+        int[] renumbered = new int[n];
+        Arrays.fill(renumbered, -1);
+        int count = 0;
+        for (int u = 0; u < n; u++) {
+            if (renumbered[label[u]] < 0) renumbered[label[u]] = count++;
+            label[u] = renumbered[label[u]];
+        }
+        labels = label;
+        memberStart = new int[count + 1];
+        for (int u = 0; u < n; u++) memberStart[labels[u] + 1]++;
+        for (int c = 0; c < count; c++) memberStart[c + 1] += memberStart[c];
+        members = new int[n];
+        int[] position = Arrays.copyOf(memberStart, count);
+        for (int u = 0; u < n; u++) members[position[labels[u]]++] = u;
+    }
+
+    /** Finds the communities of the given graph on the common ForkJoinPool, with a fixed seed. */
+    public static Communities of(NetworkGraph graph) {
+        return of(graph, 1, ForkJoinPool.commonPool());
+    }
+
+    /** Finds the communities of the given graph on the given ForkJoinPool. The seed picks the order
+     *  in which the users are updated, and breaks ties between labels. */
+    public static Communities of(NetworkGraph graph, long seed, ForkJoinPool pool) {
+        return new Communities(graph, seed, pool);
+    }
+
+    /** Returns the graph that these communities were found in. */
+    public NetworkGraph getGraph() {
+        return graph;
+    }
+
+    /** Returns the number of iterations that were needed. */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /** Returns the number of communities. */
+    public int getCommunityCount() {
+        return memberStart.length - 1;
+    }
+
+    /** Returns the community of user u (0 to getCommunityCount() - 1). */
+    public int communityOf(int u) {
+        return labels[u];
+    }
+
+    /** Returns the community of the user with the given name, or -1 if there is no such user. */
+    public int communityOf(String name) {
+        int u = graph.indexOf(name);
+        return (u < 0) ? -1 : labels[u];
+    }
+
+    /** Returns the number of users in community c. */
+    public int communitySize(int c) {
+        return memberStart[c + 1] - memberStart[c];
+    }
+
+    /** Returns the number of users in the largest community (0 for an empty graph). */
+    public int largestCommunitySize() {
+        int max = 0;
+        for (int c = 0; c + 1 < memberStart.length; c++) max = Math.max(max, communitySize(c));
+        return max;
+    }
+
+    /** Returns the users of community c, in increasing order. */
+    public int[] members(int c) {
+        return Arrays.copyOfRange(members, memberStart[c], memberStart[c + 1]);
+    }
+
+    // A 32-bit mixing function (the finalizer of MurmurHash3), for tie breaks
+    private static int mix(long x) {
+        int h = (int) (x ^ (x >>> 32));
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    private static LabelCounts labelCounts(int degree) {
+        LabelCounts map = counts.get();
+        if (map == null || map.keys.length < 2 * degree) {
+            map = new LabelCounts(Math.max(64, Integer.highestOneBit(Math.max(1, degree)) * 4));
+            counts.set(map);
+        }
+        return map;
+    }
+
+    // Counts labels: keys holds label + 1 (0 for an empty slot), and used lists the taken slots, so
+    // clearing costs as much as the labels that were counted
+    private static class LabelCounts {
+        final int[] keys;
+        final int[] values;
+        final int[] used;
+        int usedCount;
+
+        LabelCounts(int capacity) {
+            keys = new int[capacity];
+            values = new int[capacity];
+            used = new int[capacity];
+        }
+
+        // Counts one more neighbor with the given label, and returns its count so far
+        int add(int label) {
+            int mask = keys.length - 1;
+            int slot = mix(label) & mask;
+            while (keys[slot] != 0 && keys[slot] != label + 1) slot = (slot + 1) & mask;
+            if (keys[slot] == 0) {
+                keys[slot] = label + 1;
+                used[usedCount++] = slot;
+            }
+            return ++values[slot];
+        }
+
+        int get(int label) {
+            int mask = keys.length - 1;
+            for (int slot = mix(label) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == label + 1) return values[slot];
+            }
+            return 0;
+        }
+
+        void clear() {
+            for (int k = 0; k < usedCount; k++) {
+                keys[used[k]] = 0;
+                values[used[k]] = 0;
+            }
+            usedCount = 0;
+        }
+    }
+
+    // Updates the active users of the blocks blocks[from..to), and returns how many of them changed
+    @SuppressWarnings("serial")
+    private static class PropagateTask extends RecursiveTask<Integer> {
+        private final int[] start, neighbors, label, blocks;
+        private final byte[] active, next;
+        private final int salt;
+        private final int from, to;
+
+        PropagateTask(int[] start, int[] neighbors, int[] label, int[] blocks, byte[] active, byte[] next, int salt, int from, int to) {
+            this.start = start;
+            this.neighbors = neighbors;
+            this.label = label;
+            this.blocks = blocks;
+            this.active = active;
+            this.next = next;
+            this.salt = salt;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from > LEAF_BLOCKS) {
+                int mid = (from + to) >>> 1;
+                PropagateTask left = new PropagateTask(start, neighbors, label, blocks, active, next, salt, from, mid);
+                left.fork();
+                int right = new PropagateTask(start, neighbors, label, blocks, active, next, salt, mid, to).compute();
+                return left.join() + right;
+            }
+            int changed = 0;
+            for (int k = from; k < to; k++) {
+                int first = blocks[k] * BLOCK_SIZE;
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    // an odd stride visits every user of the block once, in a scrambled order
+                    int u = first + ((i * (salt | 1)) & (BLOCK_SIZE - 1));
+                    if (u >= label.length || active[u] == 0) continue;
+                    active[u] = 0;
+                    if (update(u)) changed++;
+                }
+            }
+            return changed;
+        }
+
+        // Gives u the most common label of its neighbors; returns true if it changed
+        private boolean update(int u) {
+            int degree = start[u + 1] - start[u];
+            if (degree == 0) return false;
+            LabelCounts map = labelCounts(degree);
+            int best = -1, bestCount = 0, bestHash = 0;
+            for (int e = start[u]; e < start[u + 1]; e++) {
+                int l = label[neighbors[e]];
+                int c = map.add(l);
+                if (c < bestCount) continue;
+                int hash = mix(l ^ salt);
+                if (c > bestCount || hash < bestHash) {
+                    best = l;
+                    bestCount = c;
+                    bestHash = hash;
+                }
+            }
+            boolean change = map.get(label[u]) < bestCount;
+            map.clear();
+            if (!change) return false;
+            label[u] = best;
+            for (int e = start[u]; e < start[u + 1]; e++) next[neighbors[e]] = 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/** The connected components of the follow graph, where a follow connects two users in both
+ *  directions (weakly connected components). Useful for finding isolated clusters of users.
+ *
+ *  The components are found with a lock-free union-find: the edges are split between the tasks of a
+ *  ForkJoinPool, and every task unites the ends of its edges. A union links the root with the larger
+ *  number under the other root with a compare-and-set, and finds compress their paths (path halving)
+ *  with compare-and-set too, so the parent of a user only ever moves to a smaller number. The root of
+ *  every component is therefore its smallest user. */
+public class Components {
+
+    private static final int LEAF_SIZE = 8192; // users per task
+
+    private final NetworkGraph graph;
+    private final int[] labels;  // labels[u] is the component of user u, numbered from 0 in order of their smallest users
+    private final int[] sizes;   // sizes[c] is the number of users in component c
+
+    private Components(NetworkGraph graph, ForkJoinPool pool) {
+        this.graph = graph;
+        int n = graph.n;
+        AtomicIntegerArray parent = new AtomicIntegerArray(n);
+        for (int u = 0; u < n; u++) parent.set(u, u);
+        pool.invoke(new UnionTask(graph, parent, 0, n));
+
+        labels = new int[n];
+        int count = 0;
+        for (int u = 0; u < n; u++) {
+            int root = find(parent, u);
+            // roots are the smallest users of their components, so every root is labeled before its users
+            labels[u] = (root == u) ? count++ : labels[root];
+        }
+        sizes = new int[count];
+        for (int u = 0; u < n; u++) sizes[labels[u]]++;
+    }
+
+    /** Finds the components of the given graph on the common ForkJoinPool. */
+    public static Components of(NetworkGraph graph) {
+        return of(graph, ForkJoinPool.commonPool());
+    }
+
+    /** Finds the components of the given graph on the given ForkJoinPool. */
+    public static Components of(NetworkGraph graph, ForkJoinPool pool) {
+        return new Components(graph, pool);
+    }
+
+    /** Returns the number of components. */
+    public int getComponentCount() {
+        return sizes.length;
+    }
+
+    /** Returns the component of user u (0 to getComponentCount() - 1). */
+    public int componentOf(int u) {
+        return labels[u];
+    }
+
+    /** Returns the component of the user with the given name, or -1 if there is no such user. */
+    public int componentOf(String name) {
+        int u = graph.indexOf(name);
+        return (u < 0) ? -1 : labels[u];
+    }
+
+    /** Returns the number of users in component c. */
+    public int componentSize(int c) {
+        return sizes[c];
+    }
+
+    /** Returns the number of users in the largest component (0 for an empty graph). */
+    public int largestComponentSize() {
+        int max = 0;
+        for (int size : sizes) max = Math.max(max, size);
+        return max;
+    }
+
+    // Returns the root of u, halving the path on the way
+    private static int find(AtomicIntegerArray parent, int u) {
+        while (true) {
+            int p = parent.get(u);
+            if (p == u) return u;
+            int grandparent = parent.get(p);
+            if (p != grandparent) parent.compareAndSet(u, p, grandparent);
+            u = grandparent;
+        }
+    }
+
+    private static void union(AtomicIntegerArray parent, int a, int b) {
+        while (true) {
+            a = find(parent, a);
+            b = find(parent, b);
+            if (a == b) return;
+            if (a < b) {
+                int t = a; a = b; b = t;
+            }
+            // a is the larger root; if it is still a root, it now hangs under b
+            if (parent.compareAndSet(a, a, b)) return;
+        }
+    }
+
+    // Unites the ends of the follows of the users from..to
+    @SuppressWarnings("serial")
+    private static class UnionTask extends RecursiveAction {
+        private final NetworkGraph graph;
+        private final AtomicIntegerArray parent;
+        private final int from, to;
+
+        UnionTask(NetworkGraph graph, AtomicIntegerArray parent, int from, int to) {
+            this.graph = graph;
+            this.parent = parent;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF_SIZE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new UnionTask(graph, parent, from, mid), new UnionTask(graph, parent, mid, to));
+                return;
+            }
+            for (int u = from; u < to; u++) {
+                for (int e = graph.outStart[u]; e < graph.outStart[u + 1]; e++) {
+                    union(parent, u, graph.out[e]);
+                }
+            }
+        }
+    }
+}
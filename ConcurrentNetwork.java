@@ -0,0 +1,435 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** A social network that many threads can use at the same time. It has the same operations as
+ *  Network, but it doesn't print anything, and a follows list refers to users by their ids
+ *  (the order in which they were added), so it always shows a user's name as it was registered.
+ *
+ *  A new user reserves its slot with compare-and-set, so registrations never wait for each other,
+ *  but it publishes its empty follows list under the striped lock of its slot, like any other write
+ *  to a follows list: the first write to a chunk in a new epoch copies the chunk, and a list that is
+ *  set in the old chunk while another writer copies it would be lost.
+ *  Follows lists are copy-on-write arrays, and the writers of a list are serialized by a striped
+ *  lock chosen by the user's id, so writes to different users proceed in parallel.
+ *  Readers never take a lock - they always see a complete follows list.
+ *
+ *  Long-running readers (analytics, batch recommendations) can take a snapshot: a consistent,
+ *  point-in-time view of the whole network that later writes don't change. The follows lists are
+ *  kept in chunks of CHUNK users, and every snapshot starts a new epoch: the first write to a chunk
+ *  in a new epoch copies the chunk instead of changing it, so a snapshot costs O(1) to take, and
+ *  writers are never stalled by a reader of an old snapshot. Old chunks are reclaimed by the garbage
+ *  collector once no snapshot refers to them. */
+public class ConcurrentNetwork {
+
+    private static final int CHUNK = 64;   // users per chunk of follows lists
+    private static final int STRIPES = 64; // a power of two
+    private static final int[] NO_FOLLOWS = new int[0];
+    private static final Integer PENDING = -1; // the id of a user that is being registered
+
+    private final int maxUserCount;
+    private final AtomicInteger reserved = new AtomicInteger();          // number of reserved slots
+    private final AtomicReferenceArray<String> names;                    // the name of every user
+    private final AtomicReference<Root> root;                            // the current chunks of follows lists
+    private final AtomicIntegerArray followerCounts;                     // how many users follow every user
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>(); // NameKey.key of the name -> id
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private volatile MutationLog log; // if not null, successful mutations are written to this log
+
+    /** Creates a network with a given maximum number of users. */
+    public ConcurrentNetwork(int maxUserCount) {
+        this.maxUserCount = maxUserCount;
+        names = new AtomicReferenceArray<String>(maxUserCount);
+        followerCounts = new AtomicIntegerArray(maxUserCount);
+        AtomicReferenceArray<Chunk> chunks = new AtomicReferenceArray<Chunk>((maxUserCount + CHUNK - 1) / CHUNK);
+        for (int c = 0; c < chunks.length(); c++) {
+            chunks.set(c, new Chunk(0));
+        }
+        root = new AtomicReference<Root>(new Root(0, chunks, null));
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /** Makes this network write every successful addUser, addFollowee, and removeFollowee to the given
+     *  log (or stops logging, if the log is null). Like Network.setLog, the record is on disk before the
+     *  change is made, and a failure to write it throws UncheckedIOException. Threads that mutate at the
+     *  same time share the log's fsyncs (group commit), so many concurrent writers cost few fsyncs.
+     *  A follow or unfollow is logged under the lock of its user, so the log has the changes of every
+     *  follows list in the order they were made. */
+    public void setLog(MutationLog log) {
+        this.log = log;
+    }
+
+    /** Returns the number of users in this network. */
+    public int getUserCount() {
+        return Math.min(reserved.get(), maxUserCount);
+    }
+
+    /** Returns a copy of the user with the given name, or null if there is no such user.
+     *  Later changes to the network don't affect the returned User. */
+    public User getUser(String name) {
+        return view().getUser(name);
+    }
+
+    /** Returns true if the user with name1 follows the user with name2. */
+    public boolean follows(String name1, String name2) {
+        return view().follows(name1, name2);
+    }
+
+    /** Adds a new user with the given name to this network. Returns false if the name is null,
+     *  if the network is full, or if the name is already a user in this network. */
+    public boolean addUser(String name) {
+        if (name == null) return false;
+        String key = NameKey.key(name);
+        if (ids.putIfAbsent(key, PENDING) != null) return false; // already a user, or being added right now
+        int id;
+        do {
+            id = reserved.get();
+            if (id >= maxUserCount) {
+                ids.remove(key);
+                return false;
+            }
+        } while (!reserved.compareAndSet(id, id + 1));
+        try {
+            logMutation(MutationLog.ADD_USER, name, null);
+        } catch (UncheckedIOException e) {
+            ids.remove(key); // the reserved slot stays empty
+            throw e;
+        }
+        names.set(id, name);
+        ReentrantLock lock = stripeOf(id);
+        lock.lock();
+        try {
+            setList(id, NO_FOLLOWS); // publishes the user to readers that scan the slots (see the class doc)
+        } finally {
+            lock.unlock();
+        }
+        ids.put(key, id); // publishes the user to lookups by name
+        return true;
+    }
+
+    /** Makes the user with name1 follow the user with name2. If successful, returns true.
+     *  Returns false if any of the two names is not a user in this network, if they are the same user,
+     *  if name1 already follows name2, or if name1 already follows User.maxfCount users. */
+    public boolean addFollowee(String name1, String name2) {
+        int id1 = idOf(name1);
+        int id2 = idOf(name2);
+        if (id1 < 0 || id2 < 0 || id1 == id2) return false;
+        ReentrantLock lock = stripeOf(id1);
+        lock.lock();
+        try {
+            int[] list = root.get().list(id1);
+            if (list.length == User.maxfCount || contains(list, id2)) return false;
+            logMutation(MutationLog.ADD_FOLLOWEE, name1, name2);
+            int[] updated = new int[list.length + 1];
+            System.arraycopy(list, 0, updated, 0, list.length);
+            updated[list.length] = id2;
+            setList(id1, updated);
+        } finally {
+            lock.unlock();
+        }
+        followerCounts.incrementAndGet(id2);
+        return true;
+    }
+
+    /** Makes the user with name1 stop following the user with name2. If successful, returns true.
+     *  If name1 is not a user in this network, or if it doesn't follow name2, returns false. */
+    public boolean removeFollowee(String name1, String name2) {
+        int id1 = idOf(name1);
+        int id2 = idOf(name2);
+        if (id1 < 0 || id2 < 0) return false;
+        ReentrantLock lock = stripeOf(id1);
+        lock.lock();
+        try {
+            int[] list = root.get().list(id1);
+            int i = indexOf(list, id2);
+            if (i < 0) return false;
+            logMutation(MutationLog.REMOVE_FOLLOWEE, name1, name2);
+            int[] updated = new int[list.length - 1];
+            System.arraycopy(list, 0, updated, 0, i);
+            System.arraycopy(list, i + 1, updated, i, list.length - i - 1);
+            setList(id1, updated);
+        } finally {
+            lock.unlock();
+        }
+        followerCounts.decrementAndGet(id2);
+        return true;
+    }
+
+    /** For the user with the given name, recommends another user to follow: the user that has the
+     *  maximal number of mutual followees with the given user. Returns null if there is no such user. */
+    public String recommendWhoToFollow(String name) {
+        return view().recommendWhoToFollow(name);
+    }
+
+    /** Returns the name of the most popular user in this network: the user that is followed by
+     *  the largest number of users. Returns null if the network is empty. */
+    public String mostPopularUser() {
+        String best = null;
+        int max = -1;
+        int count = getUserCount();
+        for (int i = 0; i < count; i++) {
+            String name = names.get(i);
+            if (name != null && followerCounts.get(i) > max) {
+                best = name;
+                max = followerCounts.get(i);
+            }
+        }
+        return best;
+    }
+
+    /** Returns a consistent, point-in-time view of this network. The snapshot doesn't change when the
+     *  network changes, and reading it never blocks the writers of the network. */
+    public Snapshot snapshot() {
+        while (true) {
+            Root current = root.get();
+            // The root that owns the table: only its writers change it
+            Root owner = (current.previous != null) ? current.previous : current;
+            // The next epoch shares the chunks until its first write (see setList)
+            if (root.compareAndSet(current, new Root(current.epoch + 1, current.chunks, owner))) {
+                // Writers that entered the old epoch may still be changing its chunks
+                while (owner.writers.get() > 0) Thread.onSpinWait();
+                return new Snapshot(current.chunks, getUserCount());
+            }
+        }
+    }
+
+    /** Returns a textual description of all the users in this network, and who they follow. */
+    public String toString() {
+        return view().toString();
+    }
+
+    // Returns a view of the current state, for the read operations. Unlike a snapshot it is not
+    // consistent across users, but every follows list that it shows is complete.
+    private Snapshot view() {
+        return new Snapshot(root.get().chunks, getUserCount());
+    }
+
+    // Replaces the follows list of the given user. The caller holds the user's stripe lock
+    // (which also guards the other users in the same chunk).
+    private void setList(int id, int[] list) {
+        while (true) {
+            Root r = root.get();
+            if (r.previous != null) { // the first write of this epoch copies the chunk table
+                // Writers that entered the previous epoch may still be replacing chunks in the table,
+                // and a copy taken before they finish would lose their writes
+                while (r.previous.writers.get() > 0) Thread.onSpinWait();
+                root.compareAndSet(r, new Root(r.epoch, copy(r.chunks), null));
+                continue;
+            }
+            r.writers.incrementAndGet();
+            try {
+                if (root.get() != r) continue; // a snapshot started a new epoch
+                int c = id / CHUNK;
+                Chunk chunk = r.chunks.get(c);
+                if (chunk.epoch != r.epoch) { // the chunk belongs to a snapshot
+                    chunk = chunk.copy(r.epoch);
+                    r.chunks.set(c, chunk);
+                }
+                chunk.lists.set(id % CHUNK, list);
+                return;
+            } finally {
+                r.writers.decrementAndGet();
+            }
+        }
+    }
+
+    // Writes a mutation to the log, if there is one, and waits until it is on disk
+    private void logMutation(int op, String name1, String name2) {
+        MutationLog current = log;
+        if (current == null) return;
+        try {
+            current.append(op, name1, name2);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static AtomicReferenceArray<Chunk> copy(AtomicReferenceArray<Chunk> chunks) {
+        AtomicReferenceArray<Chunk> result = new AtomicReferenceArray<Chunk>(chunks.length());
+        for (int c = 0; c < chunks.length(); c++) {
+            result.set(c, chunks.get(c));
+        }
+        return result;
+    }
+
+    // Returns the id of the user with the given name, or -1 if there is no such (completely added) user
+    private int idOf(String name) {
+        if (name == null) return -1;
+        Integer id = ids.get(NameKey.key(name));
+        return (id == null) ? -1 : id;
+    }
+
+    private ReentrantLock stripeOf(int id) {
+        return stripes[(id / CHUNK) & (STRIPES - 1)];
+    }
+
+    private static boolean contains(int[] list, int id) {
+        return indexOf(list, id) >= 0;
+    }
+
+    private static int indexOf(int[] list, int id) {
+        for (int i = 0; i < list.length; i++) {
+            if (list[i] == id) return i;
+        }
+        return -1;
+    }
+
+    // Returns the number of ids that appear in both lists
+    private static int countMutual(int[] a, int[] b) {
+        int count = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (contains(b, a[i])) count++;
+        }
+        return count;
+    }
+
+    // The follows lists of CHUNK consecutive users, as they are in one epoch
+    private static class Chunk {
+        final long epoch;
+        final AtomicReferenceArray<int[]> lists = new AtomicReferenceArray<int[]>(CHUNK); // null for a free slot
+
+        Chunk(long epoch) {
+            this.epoch = epoch;
+        }
+
+        Chunk copy(long newEpoch) {
+            Chunk result = new Chunk(newEpoch);
+            for (int i = 0; i < CHUNK; i++) {
+                result.lists.set(i, lists.get(i));
+            }
+            return result;
+        }
+    }
+
+    // The chunk table of one epoch. A table that was handed to a snapshot is shared by the next
+    // epoch, and is copied before that epoch changes anything.
+    private static class Root {
+        final long epoch;
+        final AtomicReferenceArray<Chunk> chunks;
+        final Root previous; // the root whose table this epoch shares, or null if it owns its table
+        final AtomicInteger writers = new AtomicInteger(); // writers that are changing this epoch's chunks
+
+        Root(long epoch, AtomicReferenceArray<Chunk> chunks, Root previous) {
+            this.epoch = epoch;
+            this.chunks = chunks;
+            this.previous = previous;
+        }
+
+        int[] list(int id) {
+            return chunks.get(id / CHUNK).lists.get(id % CHUNK);
+        }
+    }
+
+    /** A read-only view of the network at the moment it was taken (see ConcurrentNetwork.snapshot). */
+    public class Snapshot {
+        private final AtomicReferenceArray<Chunk> chunks;
+        private final int count; // the number of slots when the snapshot was taken
+
+        private Snapshot(AtomicReferenceArray<Chunk> chunks, int count) {
+            this.chunks = chunks;
+            this.count = count;
+        }
+
+        // Returns the follows list of the given user, or null if the user isn't in this snapshot
+        private int[] list(int id) {
+            if (id < 0 || id >= count) return null;
+            return chunks.get(id / CHUNK).lists.get(id % CHUNK);
+        }
+
+        private int idOf(String name) {
+            int id = ConcurrentNetwork.this.idOf(name);
+            return (list(id) == null) ? -1 : id;
+        }
+
+        /** Returns the number of users in this snapshot. */
+        public int getUserCount() {
+            int users = 0;
+            for (int i = 0; i < count; i++) {
+                if (list(i) != null) users++;
+            }
+            return users;
+        }
+
+        /** Returns a copy of the user with the given name, or null if there is no such user. */
+        public User getUser(String name) {
+            int id = idOf(name);
+            if (id < 0) return null;
+            User user = new User(names.get(id));
+            int[] list = list(id);
+            for (int i = 0; i < list.length; i++) {
+                user.appendFollowee(names.get(list[i]));
+            }
+            return user;
+        }
+
+        /** Returns true if the user with name1 follows the user with name2. */
+        public boolean follows(String name1, String name2) {
+            int id1 = idOf(name1);
+            int id2 = idOf(name2);
+            return id1 >= 0 && id2 >= 0 && contains(list(id1), id2);
+        }
+
+        /** For the user with the given name, recommends another user to follow: the user that has the
+         *  maximal number of mutual followees with the given user. Returns null if there is no such user. */
+        public String recommendWhoToFollow(String name) {
+            int id = idOf(name);
+            if (id < 0) return null;
+            int[] mine = list(id);
+            String best = null;
+            int max = 0;
+            for (int i = 0; i < count; i++) {
+                int[] other = list(i);
+                if (i == id || other == null) continue;
+                int mutual = countMutual(mine, other);
+                if (mutual > max) {
+                    best = names.get(i);
+                    max = mutual;
+                }
+            }
+            return best;
+        }
+
+        /** Returns the name of the most popular user in this snapshot: the user that is followed by
+         *  the largest number of users. Returns null if the snapshot is empty. */
+        public String mostPopularUser() {
+            int[] followers = new int[count];
+            for (int i = 0; i < count; i++) {
+                int[] list = list(i);
+                if (list == null) continue;
+                for (int j = 0; j < list.length; j++) {
+                    followers[list[j]]++;
+                }
+            }
+            String best = null;
+            int max = -1;
+            for (int i = 0; i < count; i++) {
+                if (list(i) != null && followers[i] > max) {
+                    best = names.get(i);
+                    max = followers[i];
+                }
+            }
+            return best;
+        }
+
+        /** Returns a textual description of all the users in this snapshot, and who they follow. */
+        public String toString() {
+            StringBuilder str = new StringBuilder("Network:");
+            for (int i = 0; i < count; i++) {
+                int[] list = list(i);
+                if (list == null) continue;
+                str.append("\n").append(names.get(i)).append(" -> ");
+                for (int j = 0; j < list.length; j++) {
+                    str.append(names.get(list[j])).append(" ");
+                }
+            }
+            return str.toString();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/** Tests the ConcurrentNetwork class. */
+public class ConcurrentNetworkTest {
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("Testing the ConcurrentNetwork class...\n");
+
+        int threadCount = 8;
+        int usersPerThread = 500;
+        ConcurrentNetwork net = new ConcurrentNetwork(threadCount * usersPerThread);
+
+        System.out.println("...Adding users from " + threadCount + " threads at the same time...");
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int first = t * usersPerThread;
+            threads[t] = new Thread(() -> {
+                for (int i = first; i < first + usersPerThread; i++) {
+                    net.addUser("User" + i);
+                    net.addUser("user" + i); // the same name in a different case must be rejected
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        System.out.println("Number of users (should be " + threadCount * usersPerThread + "): " + net.getUserCount());
+
+        System.out.println("\n...Every thread makes its users follow User0 to User" + (User.maxfCount + 1) + "...");
+        for (int t = 0; t < threadCount; t++) {
+            final int first = t * usersPerThread;
+            threads[t] = new Thread(() -> {
+                for (int i = first; i < first + usersPerThread; i++) {
+                    for (int j = 0; j <= User.maxfCount + 1; j++) {
+                        net.addFollowee("User" + i, "User" + j);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        System.out.println("User20 follows (should be " + User.maxfCount + " users): " + net.getUser("User20").getfCount());
+        System.out.println("User20 follows User3: " + net.follows("User20", "User3"));
+        System.out.println("The most popular user (should be User0): " + net.mostPopularUser());
+
+        System.out.println("\n...User20 stops following User0, twice...");
+        System.out.println("First removal: " + net.removeFollowee("User20", "User0"));
+        System.out.println("Second removal: " + net.removeFollowee("User20", "user0"));
+        System.out.println(net.getUser("User20"));
+
+        System.out.println("\n...Suggesting to User20 which user to follow...");
+        System.out.println("Recommended: " + net.recommendWhoToFollow("User20"));
+
+        System.out.println("\n...Taking a snapshot, and then changing the network while reading the snapshot...");
+        ConcurrentNetwork.Snapshot snapshot = net.snapshot();
+        String before = snapshot.toString();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < threadCount * usersPerThread; i++) {
+                net.removeFollowee("User" + i, "User1");
+            }
+        });
+        writer.start();
+        String popular = snapshot.mostPopularUser();
+        writer.join();
+        System.out.println("The snapshot didn't change: " + snapshot.toString().equals(before));
+        System.out.println("User20 follows User1 in the snapshot: " + snapshot.follows("User20", "User1"));
+        System.out.println("User20 follows User1 in the network: " + net.follows("User20", "User1"));
+        System.out.println("The most popular user in the snapshot: " + popular);
+
+
+        System.out.println("\n...Following from " + threadCount + " threads while snapshots are taken all the time...");
+        ConcurrentNetwork busy = new ConcurrentNetwork(threadCount * usersPerThread);
+        for (int i = 0; i < threadCount * usersPerThread; i++) busy.addUser("User" + i);
+        int[] added = new int[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = thread; i < threadCount * usersPerThread; i += threadCount) {
+                    for (int j = 1; j <= User.maxfCount; j++) {
+                        if (busy.addFollowee("User" + i, "User" + ((i + j * 37) % (threadCount * usersPerThread)))) added[thread]++;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        boolean writing = true;
+        while (writing) {
+            busy.snapshot();
+            writing = false;
+            for (Thread thread : threads) writing |= thread.isAlive();
+        }
+        for (Thread thread : threads) thread.join();
+        int addedCount = 0, present = 0;
+        for (int t = 0; t < threadCount; t++) addedCount += added[t];
+        for (int i = 0; i < threadCount * usersPerThread; i++) present += busy.getUser("User" + i).getfCount();
+        System.out.println("Every follow that was added is in the network: " + (present == addedCount)
+                + " (" + addedCount + " added, " + present + " present)");
+        System.out.println("\nAll ConcurrentNetwork class tests completed.");
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.concurrent.ForkJoinPool;
+
+/** Approximate distances in the follow graph, answered in O(k) without a search. A few landmark users
+ *  (the k users with the most follows and followers) are picked, and two breadth-first searches from
+ *  each of them (forward along the follows and backward along the followers) give the distances from
+ *  every landmark to every user and from every user to every landmark. By the triangle inequality,
+ *  the distance from a to b is at most the shortest way through a landmark, d(a, L) + d(L, b), and
+ *  at least d(L, b) - d(L, a) and d(a, L) - d(b, L) for every landmark L. Through a well connected
+ *  landmark, the upper bound is usually exact or one or two more than the true distance.
+ *
+ *  The distances are kept in two byte arrays, one byte per user and landmark in each direction: 2kN
+ *  bytes in all. The k distances of a user are next to each other, so a query reads a few cache
+ *  lines. Distances of UNKNOWN or more are stored as UNKNOWN, and users that can't be reached as
+ *  UNREACHABLE; neither is used for bounds. */
+public class DistanceOracle {
+
+    /** The stored distance of users that are at least this far (treated as unknown). */
+    public static final int UNKNOWN = 254;
+    /** The stored distance of users that can't be reached. */
+    public static final int UNREACHABLE = 255;
+
+    private final NetworkGraph graph;
+    private final int[] landmarks;
+    private final byte[] from; // from[u * k + i] is the distance from landmark i to user u
+    private final byte[] to;   // to[u * k + i] is the distance from user u to landmark i
+
+    private DistanceOracle(NetworkGraph graph, int k, ForkJoinPool pool) {
+        this.graph = graph;
+        landmarks = mostConnected(graph, Math.min(k, Integer.MAX_VALUE / Math.max(1, graph.n)));
+        from = new byte[graph.n * landmarks.length];
+        to = new byte[graph.n * landmarks.length];
+        for (int i = 0; i < landmarks.length; i++) {
+            store(ParallelBfs.run(graph, landmarks[i], false, pool), from, i);
+            store(ParallelBfs.run(graph, landmarks[i], true, pool), to, i);
+        }
+    }
+
+    /** Picks k landmarks in the given graph and searches from them on the common ForkJoinPool. */
+    public static DistanceOracle of(NetworkGraph graph, int k) {
+        return of(graph, k, ForkJoinPool.commonPool());
+    }
+
+    /** Picks k landmarks in the given graph and searches from them on the given ForkJoinPool. */
+    public static DistanceOracle of(NetworkGraph graph, int k, ForkJoinPool pool) {
+        if (k < 1) throw new IllegalArgumentException("There must be at least one landmark");
+        return new DistanceOracle(graph, k, pool);
+    }
+
+    /** Returns the graph that these distances were computed for. */
+    public NetworkGraph getGraph() {
+        return graph;
+    }
+
+    /** Returns the landmark users, most connected first. */
+    public int[] getLandmarks() {
+        return landmarks.clone();
+    }
+
+    /** Returns the approximate distance from user a to user b: the upper bound, which is never smaller
+     *  than the true distance. Returns -1 if no landmark lies on a chain of follows from a to b. */
+    public int distance(int a, int b) {
+        return upperBound(a, b);
+    }
+
+    /** Returns the length of the shortest chain of follows from a to b through a landmark, or -1 if
+     *  there is none (0 if a == b). */
+    public int upperBound(int a, int b) {
+        if (a == b) return 0;
+        int k = landmarks.length;
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i < k; i++) {
+            int toLandmark = to[a * k + i] & 0xff;
+            int fromLandmark = from[b * k + i] & 0xff;
+            if (toLandmark < UNKNOWN && fromLandmark < UNKNOWN) best = Math.min(best, toLandmark + fromLandmark);
+        }
+        return (best == Integer.MAX_VALUE) ? -1 : best;
+    }
+
+    /** Returns a lower bound on the distance from a to b, or -1 if b can't be reached from a (because
+     *  a landmark reaches a but not b, or b reaches a landmark that a doesn't). */
+    public int lowerBound(int a, int b) {
+        if (a == b) return 0;
+        int k = landmarks.length;
+        int best = 1;
+        for (int i = 0; i < k; i++) {
+            int la = from[a * k + i] & 0xff, lb = from[b * k + i] & 0xff;
+            if (la < UNKNOWN && lb == UNREACHABLE) return -1;
+            if (la < UNKNOWN && lb < UNKNOWN) best = Math.max(best, lb - la);
+            int al = to[a * k + i] & 0xff, bl = to[b * k + i] & 0xff;
+            if (bl < UNKNOWN && al == UNREACHABLE) return -1;
+            if (al < UNKNOWN && bl < UNKNOWN) best = Math.max(best, al - bl);
+        }
+        return best;
+    }
+
+    // Returns the k users (fewer in a smaller graph) with the most follows and followers, most first
+    // and then in increasing order, by a counting sort on the degrees
+    private static int[] mostConnected(NetworkGraph graph, int k) {
+        int n = graph.n;
+        k = Math.min(k, n);
+        int maxDegree = 0;
+        for (int u = 0; u < n; u++) maxDegree = Math.max(maxDegree, graph.outDegree(u) + graph.inDegree(u));
+        int[] count = new int[maxDegree + 2];
+        for (int u = 0; u < n; u++) count[graph.outDegree(u) + graph.inDegree(u)]++;
+        // start[d] is the position of the first user with degree d in the sorted order
+        int[] start = new int[maxDegree + 2];
+        for (int d = maxDegree - 1; d >= 0; d--) start[d] = start[d + 1] + count[d + 1];
+        int[] chosen = new int[k];
+        for (int u = 0; u < n; u++) {
+            int position = start[graph.outDegree(u) + graph.inDegree(u)]++;
+            if (position < k) chosen[position] = u;
+        }
+        return chosen;
+    }
+
+    // Stores the depths that the search found as the distances of landmark i
+    private void store(ParallelBfs search, byte[] distances, int i) {
+        int k = landmarks.length;
+        for (int u = 0; u < graph.n; u++) {
+            int d = search.depth(u);
+            distances[u * k + i] = (byte) ((d < 0) ? UNREACHABLE : Math.min(d, UNKNOWN));
+        }
+    }
+}
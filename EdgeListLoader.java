@@ -0,0 +1,317 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Loads a network from a text edge list: every line is "follower followee", separated by spaces or tabs.
+ *  A line with a single name adds a user that follows nobody, and lines that start with '#' are comments.
+ *
+ *  Instead of calling Network.addFollowee per line (which scans the network and prints), the loader
+ *  splits the file into chunks that are tokenized in parallel, interns the names to int ids
+ *  (case-insensitively, like Network.getUser), removes duplicate edges with a parallel sort,
+ *  and then builds every user's follows list in one pass.
+ *
+ *  The users are added in the order of their first appearance in the file, and every follows list is
+ *  ordered the same way. As in User.addFollowee, a user can follow at most User.maxfCount users;
+ *  the extra edges of a user are dropped (see getDroppedCount). */
+public class EdgeListLoader {
+
+    private static final int MIN_CHUNK = 1 << 20;   // 1 MB
+    private static final int MAX_CHUNK = 256 << 20; // 256 MB, must fit in one mapped buffer
+
+    private final int threads;
+    private long edgeCount;    // distinct edges that were added by the last load
+    private long droppedCount; // self-follows, malformed lines, and edges beyond User.maxfCount
+
+    /** Creates a loader that uses the given number of threads. */
+    public EdgeListLoader(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /** Creates a loader that uses all the available processors. */
+    public EdgeListLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Returns the number of follows that were added by the last load. */
+    public long getEdgeCount() {
+        return edgeCount;
+    }
+
+    /** Returns the number of lines or edges that the last load ignored. */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /** Loads the given edge list file into a new network. The network can hold at least
+     *  maxUserCount users, or more if the file has more distinct names. */
+    public Network load(Path file, int maxUserCount) throws IOException {
+        ConcurrentHashMap<String, Name> names = new ConcurrentHashMap<String, Name>();
+        AtomicInteger nextId = new AtomicInteger();
+        List<Chunk> chunks = new ArrayList<Chunk>();
+
+        // Tokenizes the chunks in parallel
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunkSize = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, size / (4L * threads) + 1));
+            List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+            for (long start = 0; start < size; start += chunkSize) {
+                final long from = start;
+                final long to = Math.min(size, start + chunkSize);
+                futures.add(pool.submit(() -> tokenize(channel, from, to, size, names, nextId)));
+            }
+            for (Future<Chunk> f : futures) {
+                chunks.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + file);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Failed to load " + file, e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        // Renumbers the names by their first appearance, so the result doesn't depend on thread timing
+        Name[] byId = names.values().toArray(new Name[0]);
+        Arrays.parallelSort(byId, (x, y) -> Long.compare(x.first, y.first));
+        int nameCount = byId.length;
+        int[] newId = new int[nextId.get()]; // ids of names that lost a race to intern are never used
+        for (int i = 0; i < nameCount; i++) {
+            newId[byId[i].id] = i;
+        }
+
+        // Packs every edge into a long (follower in the high half), then sorts and removes duplicates
+        long total = 0;
+        for (Chunk c : chunks) total += c.count;
+        if (total > Integer.MAX_VALUE - 8) throw new IOException("Too many edges in " + file);
+        long[] edges = new long[(int) total];
+        int k = 0;
+        long dropped = 0;
+        for (Chunk c : chunks) {
+            for (int i = 0; i < c.count; i++) {
+                int from = newId[(int) (c.edges[i] >>> 32)];
+                int to = newId[(int) c.edges[i]];
+                edges[k++] = ((long) from << 32) | to;
+            }
+            dropped += c.dropped;
+            c.edges = null;
+        }
+        Arrays.parallelSort(edges);
+
+        // Builds the users and their follows lists in one pass over the sorted edges
+        Network network = new Network(Math.max(maxUserCount, nameCount));
+        User[] users = new User[nameCount];
+        int[] dictionaryIds = new int[nameCount];
+        for (int i = 0; i < nameCount; i++) {
+            users[i] = new User(byId[i].display);
+            network.appendLoadedUser(users[i]);
+            dictionaryIds[i] = NameDictionary.intern(byId[i].display);
+        }
+        long added = 0;
+        for (int i = 0; i < edges.length; i++) {
+            if (i > 0 && edges[i] == edges[i - 1]) continue; // duplicate edge
+            int from = (int) (edges[i] >>> 32);
+            int to = (int) edges[i];
+            if (users[from].getfCount() == User.maxfCount) {
+                dropped++;
+                continue;
+            }
+            users[from].appendFolloweeId(dictionaryIds[to]);
+            added++;
+        }
+        edgeCount = added;
+        droppedCount = dropped;
+        return network;
+    }
+
+    // Tokenizes the lines that start in [from, to): a chunk skips the partial line at its start
+    // (the previous chunk reads it), and reads past its end to complete its last line.
+    private static Chunk tokenize(FileChannel channel, long from, long to, long size,
+                                  ConcurrentHashMap<String, Name> names, AtomicInteger nextId) throws IOException {
+        long start = (from == 0) ? 0 : from - 1; // one byte back, to see if the chunk starts a line
+        long end = Math.min(size, to + 4096);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        while (end < size && !hasLineBreak(buffer, (int) (to - start) - 1)) { // the last line is longer than the margin
+            end = Math.min(size, end + (end - start));
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        }
+
+        Chunk chunk = new Chunk();
+        LocalNames local = new LocalNames(); // saves building a String, and contention on the shared map
+        byte[] token = new byte[64];
+        int pos = 0;
+        int limit = buffer.limit();
+        int stop = (int) (to - start);
+        if (from > 0) { // skips to the beginning of the next line
+            while (pos < limit && buffer.get(pos) != '\n') pos++;
+            pos++;
+        }
+        while (pos < stop && pos < limit) {
+            long lineOffset = start + pos;
+            int ids0 = -1, ids1 = -1, column = 0;
+            boolean comment = buffer.get(pos) == '#';
+            while (pos < limit) {
+                byte b = buffer.get(pos);
+                if (b == '\n') break;
+                if (b == ' ' || b == '\t' || b == '\r' || comment) {
+                    pos++;
+                    continue;
+                }
+                int length = 0;
+                while (pos < limit && (b = buffer.get(pos)) != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                    if (length == token.length) token = Arrays.copyOf(token, 2 * length);
+                    token[length++] = b;
+                    pos++;
+                }
+                if (column < 2) {
+                    int id = intern(token, length, 2 * lineOffset + column, names, local, nextId);
+                    if (column == 0) ids0 = id;
+                    else ids1 = id;
+                }
+                column++;
+            }
+            pos++;
+            if (comment || column == 0) continue;
+            if (column > 2 || ids0 == ids1) {
+                chunk.dropped++;
+                continue;
+            }
+            if (column == 2) chunk.add(((long) ids0 << 32) | ids1);
+        }
+        return chunk;
+    }
+
+    // Returns true if the buffer has a line break at or after the given index
+    private static boolean hasLineBreak(MappedByteBuffer buffer, int from) {
+        for (int i = Math.max(0, from); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') return true;
+        }
+        return false;
+    }
+
+    // Returns the id of the name in the given bytes, creating it if needed. The name remembers
+    // its first position in the file, and its spelling at that position.
+    private static int intern(byte[] token, int length, long position, ConcurrentHashMap<String, Name> names,
+                              LocalNames local, AtomicInteger nextId) {
+        int hash = hash(token, length);
+        int id = local.get(token, length, hash);
+        if (id >= 0) return id;
+        String name = new String(token, 0, length, StandardCharsets.UTF_8);
+        String key = NameKey.key(name);
+        Name n = names.get(key);
+        if (n == null) {
+            Name created = new Name(nextId.getAndIncrement(), name, position);
+            n = names.putIfAbsent(key, created);
+            if (n == null) n = created;
+        }
+        n.seen(name, position);
+        local.put(token, length, hash, n.id);
+        return n.id;
+    }
+
+    private static int hash(byte[] bytes, int length) {
+        int h = 0x811C9DC5; // FNV-1a
+        for (int i = 0; i < length; i++) {
+            h = (h ^ bytes[i]) * 0x01000193;
+        }
+        return h;
+    }
+
+    // The names that one chunk has already seen, keyed by their exact bytes. Every probe touches
+    // one slot (hash and entry number packed in a long) and one entry (offset, length, and id together).
+    private static class LocalNames {
+        private long[] slots = new long[1024]; // (hash << 32) | (entry + 1), 0 for an empty slot
+        private int[] entries = new int[3 * 512]; // offset in the arena, length, and id of every entry
+        private byte[] arena = new byte[16 * 1024];
+        private int arenaSize;
+        private int size;
+
+        // Returns the id of the given name, or -1 if this chunk hasn't seen it yet
+        int get(byte[] token, int length, int hash) {
+            int mask = slots.length - 1;
+            for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+                if ((int) (slots[slot] >>> 32) != hash) continue;
+                int e = 3 * ((int) slots[slot] - 1);
+                int offset = entries[e];
+                if (entries[e + 1] == length && Arrays.equals(arena, offset, offset + length, token, 0, length)) {
+                    return entries[e + 2];
+                }
+            }
+            return -1;
+        }
+
+        void put(byte[] token, int length, int hash, int id) {
+            if (2 * (size + 1) > slots.length) grow();
+            if (3 * (size + 1) > entries.length) entries = Arrays.copyOf(entries, 2 * entries.length);
+            if (arenaSize + length > arena.length) arena = Arrays.copyOf(arena, Math.max(2 * arena.length, arenaSize + length));
+            System.arraycopy(token, 0, arena, arenaSize, length);
+            entries[3 * size] = arenaSize;
+            entries[3 * size + 1] = length;
+            entries[3 * size + 2] = id;
+            arenaSize += length;
+            size++;
+            insert(((long) hash << 32) | size);
+        }
+
+        private void insert(long value) {
+            int mask = slots.length - 1;
+            int slot = (int) (value >>> 32) & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = value;
+        }
+
+        private void grow() {
+            long[] old = slots;
+            slots = new long[2 * old.length];
+            for (long value : old) {
+                if (value != 0) insert(value);
+            }
+        }
+    }
+
+    // A distinct (case-insensitive) name in the file
+    private static class Name {
+        final int id;
+        String display; // the spelling at the first position
+        long first;     // the first position: 2 * line offset + column
+
+        Name(int id, String display, long first) {
+            this.id = id;
+            this.display = display;
+            this.first = first;
+        }
+
+        synchronized void seen(String spelling, long position) {
+            if (position < first) {
+                first = position;
+                display = spelling;
+            }
+        }
+    }
+
+    // The edges of one chunk, as (provisional follower id << 32 | followee id)
+    private static class Chunk {
+        long[] edges = new long[1024];
+        int count;
+        long dropped;
+
+        void add(long edge) {
+            if (count == edges.length) edges = Arrays.copyOf(edges, 2 * count);
+            edges[count++] = edge;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.Arrays;
+
+/** The k-core decomposition of the follow graph, taken as undirected (two users are neighbors if either
+ *  follows the other). The k-core is the largest group of users in which everybody has at least k
+ *  neighbors inside the group; the core number of a user is the largest k whose k-core contains it.
+ *  Users with high core numbers sit in the dense center of the network.
+ *
+ *  Computed with the bucket algorithm of Batagelj and Zaversnik in O(N + E): the users are kept
+ *  sorted by their remaining degree in an array of buckets, and the user with the smallest remaining
+ *  degree is peeled off repeatedly, moving each of its neighbors one bucket down in O(1).
+ *  Network keeps core numbers up to date incrementally (see Network.coreNumber). */
+public class KCore {
+
+    private final int[] cores;
+    private final int maxCore;
+
+    private KCore(NetworkGraph graph) {
+        int n = graph.n;
+        int[] start = graph.neighborStart();
+        int[] neighbors = graph.neighbors();
+        int[] degree = new int[n];
+        int maxDegree = 0;
+        for (int u = 0; u < n; u++) {
+            degree[u] = start[u + 1] - start[u];
+            maxDegree = Math.max(maxDegree, degree[u]);
+        }
+
+        // The users sorted by degree (vert), the position of every user in it (pos), and the
+        // position where every bucket of equal degrees starts (bucket)
+        int[] bucket = new int[maxDegree + 1];
+        for (int u = 0; u < n; u++) bucket[degree[u]]++;
+        for (int d = 0, first = 0; d <= maxDegree; d++) {
+            int size = bucket[d];
+            bucket[d] = first;
+            first += size;
+        }
+        int[] vert = new int[n];
+        int[] pos = new int[n];
+        int[] next = Arrays.copyOf(bucket, bucket.length);
+        for (int u = 0; u < n; u++) {
+            pos[u] = next[degree[u]]++;
+            vert[pos[u]] = u;
+        }
+
+        int max = 0;
+        for (int i = 0; i < n; i++) {
+            int u = vert[i]; // the remaining user with the smallest degree: its core number is its degree
+            max = Math.max(max, degree[u]);
+            for (int e = start[u]; e < start[u + 1]; e++) {
+                int v = neighbors[e];
+                if (degree[v] > degree[u]) {
+                    // swaps v with the first user of its bucket, and moves the bucket's start past it
+                    int d = degree[v];
+                    int first = bucket[d];
+                    int w = vert[first];
+                    if (w != v) {
+                        vert[pos[v]] = w;
+                        pos[w] = pos[v];
+                        vert[first] = v;
+                        pos[v] = first;
+                    }
+                    bucket[d]++;
+                    degree[v]--;
+                }
+            }
+        }
+        cores = degree;
+        maxCore = max;
+    }
+
+    /** Computes the core numbers of the given graph. */
+    public static KCore of(NetworkGraph graph) {
+        return new KCore(graph);
+    }
+
+    /** Returns the core number of user u. */
+    public int coreNumber(int u) {
+        return cores[u];
+    }
+
+    /** Returns the largest core number in the graph (0 for an empty graph). */
+    public int getMaxCore() {
+        return maxCore;
+    }
+
+    /** Returns a copy of the core numbers of all the users. */
+    public int[] coreNumbers() {
+        return Arrays.copyOf(cores, cores.length);
+    }
+}
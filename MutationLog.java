@@ -0,0 +1,289 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/** An append-only write-ahead log of the mutations of a network (addUser, addFollowee, removeFollowee, removeUser).
+ *  Together with the last snapshot (see Network.save), the log allows recovering the network after a crash.
+ *
+ *  The log uses group commit: a writer appends its record to an in-memory batch and then waits until the
+ *  batch is on disk. The first waiting writer becomes the "leader" - it writes the whole batch and calls
+ *  fsync once for everybody, while the records of other writers keep accumulating in the next batch.
+ *  So under concurrent load (a ConcurrentNetwork with a log, see ConcurrentNetwork.setLog), one fsync
+ *  covers many mutations. A Network is used by one thread, so there it is the batch methods (addUsers,
+ *  addFollowees) that share an fsync.
+ *
+ *  Record format: op (1 byte), the names (varint length + UTF-8 bytes each), then the CRC32 of the record
+ *  (4 bytes). A torn record at the end of the file (from a crash in the middle of a write) is ignored on replay. */
+public class MutationLog implements Closeable {
+
+    // Record types
+    static final int ADD_USER = 1;
+    static final int ADD_FOLLOWEE = 2;
+    static final int REMOVE_FOLLOWEE = 3;
+    static final int REMOVE_USER = 4;
+
+    private final FileChannel channel;
+
+    // Records that were appended but not yet handed to a leader, and a spare buffer for swapping
+    private RecordBuffer pending = new RecordBuffer();
+    private RecordBuffer spare = new RecordBuffer();
+    private long appendedSeq; // sequence number of the last appended record
+    private long durableSeq;  // sequence number of the last record that is known to be on disk
+    private boolean flushing; // true while a leader writes a batch
+    private IOException failure; // once a write fails, the log refuses further work
+
+    /** Opens the log in the given file for appending, creating the file if needed. */
+    public MutationLog(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /** Logs the addition of a user, and returns once the record is on disk. */
+    public void logAddUser(String name) throws IOException {
+        append(ADD_USER, name, null);
+    }
+
+    /** Logs that name1 followed name2, and returns once the record is on disk. */
+    public void logAddFollowee(String name1, String name2) throws IOException {
+        append(ADD_FOLLOWEE, name1, name2);
+    }
+
+    /** Logs that name1 stopped following name2, and returns once the record is on disk. */
+    public void logRemoveFollowee(String name1, String name2) throws IOException {
+        append(REMOVE_FOLLOWEE, name1, name2);
+    }
+
+    /** Logs the removal of a user, and returns once the record is on disk. */
+    public void logRemoveUser(String name) throws IOException {
+        append(REMOVE_USER, name, null);
+    }
+
+    // Adds a record to the current batch, and waits until that batch is durable.
+    void append(int op, String name1, String name2) throws IOException {
+        long seq;
+        checkName(name1);
+        if (name2 != null) checkName(name2);
+        synchronized (this) {
+            if (failure != null) throw new IOException("The log failed earlier", failure);
+            pending.add(op, name1, name2);
+            seq = ++appendedSeq;
+        }
+        awaitDurable(seq);
+    }
+
+    // Adds count records with the same op to the current batch, and waits once until they are all durable.
+    // names2 is null for ops that have one name.
+    void appendAll(int op, String[] names1, String[] names2, int count) throws IOException {
+        if (count == 0) return;
+        for (int k = 0; k < count; k++) {
+            checkName(names1[k]);
+            if (names2 != null) checkName(names2[k]);
+        }
+        long seq;
+        synchronized (this) {
+            if (failure != null) throw new IOException("The log failed earlier", failure);
+            for (int k = 0; k < count; k++) {
+                pending.add(op, names1[k], (names2 == null) ? null : names2[k]);
+            }
+            appendedSeq += count;
+            seq = appendedSeq;
+        }
+        awaitDurable(seq);
+    }
+
+    // Refuses a name that replay would take for a corrupted record
+    private static void checkName(String name) throws IOException {
+        if (name.length() > Network.MAX_NAME_BYTES / 3 && name.getBytes(StandardCharsets.UTF_8).length > Network.MAX_NAME_BYTES) {
+            throw new IOException("Name is too long to log: " + name.length() + " characters");
+        }
+    }
+
+    // Group commit: either waits for the current leader, or becomes the leader and writes the batch.
+    private void awaitDurable(long seq) throws IOException {
+        RecordBuffer batch;
+        long target;
+        synchronized (this) {
+            while (durableSeq < seq && flushing && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the log");
+                }
+            }
+            if (failure != null) throw new IOException("The log failed earlier", failure);
+            if (durableSeq >= seq) return;
+            flushing = true;
+            batch = pending;
+            pending = spare;
+            spare = null;
+            target = appendedSeq;
+        }
+        IOException error = null;
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(batch.bytes(), 0, batch.size());
+            while (bytes.hasRemaining()) channel.write(bytes);
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            flushing = false;
+            batch.reset();
+            spare = batch;
+            if (error == null) durableSeq = target;
+            else failure = error;
+            notifyAll();
+        }
+        if (error != null) throw error;
+    }
+
+    /** Empties the log. Call this after a snapshot that contains all the logged mutations was saved. */
+    public synchronized void reset() throws IOException {
+        while (flushing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the log");
+            }
+        }
+        if (pending.size() > 0) throw new IOException("Can't reset the log while mutations are being logged");
+        channel.truncate(0);
+        channel.force(true);
+    }
+
+    /** Closes the log file. */
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /** Applies the records of the given log to the given network, in order, without printing anything.
+     *  Reading stops at the end of the stream or at the first torn or corrupted record (a record that
+     *  ends early, has an impossible name length, or fails its checksum).
+     *  Returns the number of bytes of valid records that were read. */
+    public static long replay(InputStream in, Network network) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        RecordBuffer record = new RecordBuffer();
+        CRC32 crc = new CRC32();
+        long valid = 0;
+        while (true) {
+            int op = data.read();
+            if (op < 0) break;
+            String name1, name2 = null;
+            int expected;
+            try {
+                name1 = readName(data);
+                if (name1 == null) break;
+                if (op != ADD_USER && op != REMOVE_USER) {
+                    name2 = readName(data);
+                    if (name2 == null) break;
+                }
+                expected = data.readInt();
+            } catch (EOFException e) {
+                break; // a torn record at the end of the log
+            }
+            record.reset();
+            record.encode(op, name1, name2);
+            crc.reset();
+            crc.update(record.bytes(), 0, record.size());
+            if ((int) crc.getValue() != expected) break;
+            if (op < ADD_USER || op > REMOVE_USER) break;
+            network.applyLogged(op, name1, name2);
+            valid += record.size() + 4;
+        }
+        return valid;
+    }
+
+    /** Rebuilds a network after a crash: loads the snapshot (if the file exists, otherwise starts from
+     *  an empty network with the given capacity) and replays the log on top of it. A torn record at the
+     *  end of the log is cut off, so the log can be reopened for appending. */
+    public static Network recover(Path snapshotFile, Path logFile, int maxUserCount) throws IOException {
+        Network network;
+        if (Files.exists(snapshotFile)) {
+            try (InputStream in = Files.newInputStream(snapshotFile)) {
+                network = Network.load(in);
+            }
+        } else {
+            network = new Network(maxUserCount);
+        }
+        if (Files.exists(logFile)) {
+            long valid;
+            try (InputStream in = Files.newInputStream(logFile)) {
+                valid = replay(in, network);
+            }
+            if (valid < Files.size(logFile)) {
+                try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                    log.truncate(valid);
+                    log.force(true);
+                }
+            }
+        }
+        return network;
+    }
+
+    // Reads a name, or returns null if its length is corrupted (negative, too long, or not a varint)
+    private static String readName(DataInputStream data) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28) return null;
+            int b = data.readUnsignedByte();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        if (length < 0 || length > Network.MAX_NAME_BYTES) return null;
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // A growable byte buffer that encodes log records
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        private final CRC32 crc = new CRC32();
+
+        // Encodes a record without its checksum
+        void encode(int op, String name1, String name2) {
+            write(op);
+            writeName(name1);
+            if (name2 != null) writeName(name2);
+        }
+
+        // Encodes a complete record, including its checksum
+        void add(int op, String name1, String name2) {
+            int start = count;
+            encode(op, name1, name2);
+            crc.reset();
+            crc.update(buf, start, count - start);
+            int value = (int) crc.getValue();
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        private void writeName(String name) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            try {
+                Varint.write(this, bytes.length);
+            } catch (IOException e) {
+                throw new AssertionError(e); // writing to memory can't fail
+            }
+            write(bytes, 0, bytes.length);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
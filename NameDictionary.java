@@ -0,0 +1,241 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** A global dictionary of user names. Every distinct name is stored once, as UTF-8 bytes in an arena
+ *  of large byte pages, and is identified by an int id. Follows lists keep these ids instead of
+ *  String references, so a name that appears in many follows lists (or that callers pass in as
+ *  freshly built Strings) is stored only once.
+ *
+ *  Names are stored exactly as they were given, but comparisons and hashing ignore case, like
+ *  Network.getUser: they fold every character directly while decoding the bytes (or walking the
+ *  String), without creating lower-case copies.
+ *
+ *  The dictionary is split into STRIPES stripes, picked by the hash of the name, and each stripe has
+ *  its own arena, hash index, and lock; the low bits of an id are its stripe. So the networks (and the
+ *  shards of a ShardedNetwork) that intern names at the same time rarely wait for each other.
+ *  Reading a name by its id takes no lock: the arena pages never move, and the tables are published
+ *  through a volatile field after they are filled.
+ *
+ *  The dictionary lives as long as the JVM and never frees a name: every name that was ever interned
+ *  (by any network, including the ones that are gone) keeps its bytes and its id. A process that sees
+ *  an unbounded stream of distinct names grows it without bound. */
+public class NameDictionary {
+
+    private static final int PAGE_SIZE = 1 << 16;
+    private static final int STRIPE_BITS = 4;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    private static final Stripe[] stripes = new Stripe[STRIPES];
+    static {
+        for (int s = 0; s < STRIPES; s++) stripes[s] = new Stripe();
+    }
+
+    // The tables that readers use. A new Tables object is published whenever an array grows.
+    private static class Tables {
+        final byte[][] pages;  // the arena: names never cross a page boundary
+        final int[] entries;   // for every id in the stripe: page, offset in the page, and length in bytes
+
+        Tables(byte[][] pages, int[] entries) {
+            this.pages = pages;
+            this.entries = entries;
+        }
+    }
+
+    // One stripe of the dictionary. Its fields other than tables are guarded by the stripe itself.
+    private static class Stripe {
+        volatile Tables tables = new Tables(new byte[][] { new byte[PAGE_SIZE] }, new int[3 * 64]);
+        int pageCount = 1;          // pages in use
+        int pageUsed = 0;           // bytes used in the last page
+        int size = 0;               // number of names in this stripe
+        int[] hashes = new int[64]; // the hash of every name, for rehashing and for quick rejects
+        int[] slots = new int[128]; // exact-bytes hash index: index in the stripe + 1, or 0 for an empty slot
+
+        synchronized int intern(byte[] bytes, int hash) {
+            Tables t = tables;
+            int mask = slots.length - 1;
+            int slot = hash & mask;
+            for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+                int local = slots[slot] - 1;
+                int e = 3 * local;
+                if (hashes[local] == hash && t.entries[e + 2] == bytes.length
+                        && Arrays.equals(t.pages[t.entries[e]], t.entries[e + 1], t.entries[e + 1] + bytes.length, bytes, 0, bytes.length)) {
+                    return local;
+                }
+            }
+
+            // Adds the name to the arena (a name that doesn't fit in the last page starts a new one)
+            byte[][] pages = t.pages;
+            int[] entries = t.entries;
+            if (pageUsed + bytes.length > pages[pageCount - 1].length) {
+                if (pageCount == pages.length) pages = Arrays.copyOf(pages, 2 * pageCount);
+                pages[pageCount++] = new byte[Math.max(PAGE_SIZE, bytes.length)];
+                pageUsed = 0;
+            }
+            System.arraycopy(bytes, 0, pages[pageCount - 1], pageUsed, bytes.length);
+            if (3 * (size + 1) > entries.length) entries = Arrays.copyOf(entries, 2 * entries.length);
+            if (size == hashes.length) hashes = Arrays.copyOf(hashes, 2 * size);
+            int local = size;
+            entries[3 * local] = pageCount - 1;
+            entries[3 * local + 1] = pageUsed;
+            entries[3 * local + 2] = bytes.length;
+            hashes[local] = hash;
+            pageUsed += bytes.length;
+            size++;
+            tables = new Tables(pages, entries); // publishes the new name
+
+            slots[slot] = local + 1;
+            if (2 * size > slots.length) rehash();
+            return local;
+        }
+
+        private void rehash() {
+            slots = new int[2 * slots.length];
+            int mask = slots.length - 1;
+            for (int local = 0; local < size; local++) {
+                int slot = hashes[local] & mask;
+                while (slots[slot] != 0) slot = (slot + 1) & mask;
+                slots[slot] = local + 1;
+            }
+        }
+    }
+
+    /** Returns the id of the given name, adding it to the dictionary if it is not there yet.
+     *  Names that differ only in case get different ids (see equalsIgnoreCase). */
+    public static int intern(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int hash = mix(Arrays.hashCode(bytes));
+        // the high bits pick the stripe, and the low bits the slot in its index
+        int s = hash >>> (32 - STRIPE_BITS);
+        int local = stripes[s].intern(bytes, hash);
+        if (local >= (1 << (31 - STRIPE_BITS))) throw new IllegalStateException("The name dictionary is full");
+        return (local << STRIPE_BITS) | s;
+    }
+
+    // The finalizer of MurmurHash3: spreads the bits of the polynomial hash of the bytes, whose low bits
+    // are nearly sequential for names like "user1", "user2", ...
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    /** Returns the number of distinct names in the dictionary. */
+    public static int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /** Returns the number of bytes that the names take in the arena. */
+    public static long arenaBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                Tables t = stripe.tables;
+                for (int local = 0; local < stripe.size; local++) bytes += t.entries[3 * local + 2];
+            }
+        }
+        return bytes;
+    }
+
+    /** Returns the name with the given id, as a new String. */
+    public static String name(int id) {
+        Tables t = tables(id);
+        int e = entry(id);
+        return new String(t.pages[t.entries[e]], t.entries[e + 1], t.entries[e + 2], StandardCharsets.UTF_8);
+    }
+
+    /** Writes the name with the given id as its length (varint) and its UTF-8 bytes, straight from the
+     *  arena, in the format of Network.writeName. */
+    static void write(OutputStream out, int id) throws IOException {
+        Tables t = tables(id);
+        int e = entry(id);
+        if (t.entries[e + 2] > Network.MAX_NAME_BYTES) throw new IOException("Name is too long: " + t.entries[e + 2] + " bytes");
+        Varint.write(out, t.entries[e + 2]);
+        out.write(t.pages[t.entries[e]], t.entries[e + 1], t.entries[e + 2]);
+    }
+
+    /** Returns true if the name with the given id is equal to the given name, ignoring case. */
+    public static boolean equalsIgnoreCase(int id, String name) {
+        Tables t = tables(id);
+        int e = entry(id);
+        byte[] page = t.pages[t.entries[e]];
+        int pos = t.entries[e + 1];
+        int end = pos + t.entries[e + 2];
+        int i = 0;
+        while (pos < end) {
+            if (i == name.length()) return false;
+            int cp = decode(page, pos);
+            pos += encodedLength(page[pos]);
+            int other = name.codePointAt(i);
+            i += Character.charCount(other);
+            if (cp != other && NameKey.fold(cp) != NameKey.fold(other)) return false;
+        }
+        return i == name.length();
+    }
+
+    /** Returns true if the names with the given ids are equal, ignoring case. */
+    public static boolean equalsIgnoreCase(int id1, int id2) {
+        if (id1 == id2) return true;
+        Tables t1 = tables(id1), t2 = tables(id2);
+        int e1 = entry(id1), e2 = entry(id2);
+        byte[] page1 = t1.pages[t1.entries[e1]];
+        byte[] page2 = t2.pages[t2.entries[e2]];
+        int pos1 = t1.entries[e1 + 1], end1 = pos1 + t1.entries[e1 + 2];
+        int pos2 = t2.entries[e2 + 1], end2 = pos2 + t2.entries[e2 + 2];
+        while (pos1 < end1 && pos2 < end2) {
+            int cp1 = decode(page1, pos1);
+            int cp2 = decode(page2, pos2);
+            if (cp1 != cp2 && NameKey.fold(cp1) != NameKey.fold(cp2)) return false;
+            pos1 += encodedLength(page1[pos1]);
+            pos2 += encodedLength(page2[pos2]);
+        }
+        return pos1 == end1 && pos2 == end2;
+    }
+
+    /** Returns a hash of the name with the given id that ignores case. Equal to NameKey.hash of the
+     *  name as a String. */
+    public static int hashIgnoreCase(int id) {
+        Tables t = tables(id);
+        int e = entry(id);
+        byte[] page = t.pages[t.entries[e]];
+        int hash = NameKey.seed();
+        for (int pos = t.entries[e + 1]; pos < t.entries[e + 1] + t.entries[e + 2]; pos += encodedLength(page[pos])) {
+            hash = NameKey.mix(hash, NameKey.fold(decode(page, pos)));
+        }
+        return hash;
+    }
+
+    private static Tables tables(int id) {
+        return stripes[id & (STRIPES - 1)].tables;
+    }
+
+    // The position of the entry of the given id in the entries of its stripe
+    private static int entry(int id) {
+        return 3 * (id >>> STRIPE_BITS);
+    }
+
+    // Decodes the UTF-8 code point that starts at the given position (the arena holds only valid UTF-8)
+    private static int decode(byte[] bytes, int pos) {
+        int b = bytes[pos];
+        if (b >= 0) return b;
+        if ((b & 0xE0) == 0xC0) return ((b & 0x1F) << 6) | (bytes[pos + 1] & 0x3F);
+        if ((b & 0xF0) == 0xE0) return ((b & 0x0F) << 12) | ((bytes[pos + 1] & 0x3F) << 6) | (bytes[pos + 2] & 0x3F);
+        return ((b & 0x07) << 18) | ((bytes[pos + 1] & 0x3F) << 12) | ((bytes[pos + 2] & 0x3F) << 6) | (bytes[pos + 3] & 0x3F);
+    }
+
+    private static int encodedLength(byte first) {
+        if (first >= 0) return 1;
+        if ((first & 0xE0) == 0xC0) return 2;
+        if ((first & 0xF0) == 0xE0) return 3;
+        return 4;
+    }
+}
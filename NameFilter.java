@@ -0,0 +1,72 @@
+import java.util.Arrays;
+
+/** A Bloom filter of user names: a compact bit set that answers "is this name possibly in the set?".
+ *  A "no" is always right, so most lookups of absent names are rejected without touching the set
+ *  itself; a "yes" is wrong with about the false positive rate that the filter was created with.
+ *  Names can't be removed: a removed name keeps its bits, and is one more false positive.
+ *
+ *  The bits of a name come from its case-insensitive hash (see NameKey), so names that differ
+ *  only in case are the same name here. */
+public class NameFilter {
+
+    private final long[] bits;
+    private final int bitCount;  // number of bits in the filter
+    private final int hashCount; // number of bits that every name sets
+
+    /** Creates a filter that holds up to the given number of names with about the given false
+     *  positive rate (between 0 and 1, e.g. 0.01). A lower rate takes more memory: about
+     *  1.44 * log2(1 / rate) bits per name. */
+    public NameFilter(int expectedNames, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("The false positive rate must be between 0 and 1");
+        }
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-Math.max(1, expectedNames) * Math.log(falsePositiveRate) / (ln2 * ln2));
+        bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, m));
+        hashCount = (int) Math.max(1, Math.min(16, Math.round((double) bitCount / Math.max(1, expectedNames) * ln2)));
+        bits = new long[(bitCount + 63) / 64];
+    }
+
+    /** Adds the given name to this filter. */
+    public void add(String name) {
+        addHash(NameKey.hash(name));
+    }
+
+    /** Returns false if the given name was surely not added to this filter, or true if it might have been. */
+    public boolean mightContain(String name) {
+        return mightContainHash(NameKey.hash(name));
+    }
+
+    /** Returns the number of bytes that the bits of this filter take. */
+    public long sizeInBytes() {
+        return 8L * bits.length;
+    }
+
+    // Empties this filter
+    void clear() {
+        Arrays.fill(bits, 0);
+    }
+
+    // Like add, for a name whose NameKey hash is already known
+    void addHash(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L; // spreads the hash into two independent halves
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    // Like mightContain, for a name whose NameKey hash is already known
+    boolean mightContainHash(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+}
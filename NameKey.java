@@ -0,0 +1,69 @@
+/** Case-insensitive hashing and comparison of user names, without allocation.
+ *  Calling toLowerCase on every comparison creates a new String each time; these methods fold the
+ *  case of one character at a time instead. Two names that are equal ignoring case always have the
+ *  same hash. A User caches the hash of its own name (see User.getNameHash). */
+public class NameKey {
+
+    /** Returns a hash of the given name that ignores case. */
+    public static int hash(String name) {
+        int hash = seed(); // FNV-1a over the folded code points
+        for (int i = 0; i < name.length(); ) {
+            int cp = name.codePointAt(i);
+            i += Character.charCount(cp);
+            hash = mix(hash, fold(cp));
+        }
+        return hash;
+    }
+
+    /** Returns true if the two names are equal, ignoring case. Null is equal only to null. */
+    public static boolean equals(String a, String b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        int i = 0, j = 0;
+        while (i < a.length() && j < b.length()) {
+            int cpA = a.codePointAt(i);
+            int cpB = b.codePointAt(j);
+            if (cpA != cpB && fold(cpA) != fold(cpB)) return false;
+            i += Character.charCount(cpA);
+            j += Character.charCount(cpB);
+        }
+        return i == a.length() && j == b.length();
+    }
+
+    /** Returns the name with the case of every character folded, for use as a map key: two names
+     *  have the same key exactly when equals says they are equal. Unlike toLowerCase, it doesn't
+     *  depend on the default locale. Returns the name itself if it has nothing to fold. */
+    public static String key(String name) {
+        int i = 0;
+        while (i < name.length()) {
+            int cp = name.codePointAt(i);
+            if (fold(cp) != cp) break;
+            i += Character.charCount(cp);
+        }
+        if (i == name.length()) return name;
+        StringBuilder key = new StringBuilder(name.length());
+        key.append(name, 0, i);
+        while (i < name.length()) {
+            int cp = name.codePointAt(i);
+            key.appendCodePoint(fold(cp));
+            i += Character.charCount(cp);
+        }
+        return key.toString();
+    }
+
+    // Adds a folded code point to a hash. Also used by NameDictionary, to hash the UTF-8 bytes of a name.
+    static int mix(int hash, int foldedCodePoint) {
+        return (hash ^ foldedCodePoint) * 0x01000193;
+    }
+
+    // The initial value of a hash, before any code point was mixed in
+    static int seed() {
+        return 0x811C9DC5;
+    }
+
+    // Folds the case of a code point, the same way String.equalsIgnoreCase compares characters
+    static int fold(int cp) {
+        if (cp < 0x80) return (cp >= 'A' && cp <= 'Z') ? cp + ('a' - 'A') : cp;
+        return Character.toLowerCase(Character.toUpperCase(cp));
+    }
+}
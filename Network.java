@@ -1,15 +1,104 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
 /** Represents a social network. The network has users, who follow other uesrs.
  *  Each user is an instance of the User class. */
-public class Network {
+public class Network implements AutoCloseable {
 
     // Fields
     private User[] users;  // the users in this network (an array of User objects)
     private int userCount; // actual number of users in this network
+    private MutationLog log; // if not null, successful mutations are written to this log
+    private int[] index;     // hash index of the users by name (see NameKey): user index + 1, or 0 for an empty slot
+    private NameFilter filter; // if not null, a Bloom filter of the names in the index (see setNameFilter)
+    private double followsFilterRate; // the false positive rate of the users' follows filters, or 0 (see setFollowsFilter)
+    private NetworkGraph graph; // the last snapshot of the follow graph, or null if users changed since
+    private NetworkGraph.Changes graphChanges; // the follows that changed since graph was taken, or null
+    private PageRank pageRank;  // the result of the last call to pageRank, or null
+    private Communities communities; // the result of the last call to communities, or null
+    private volatile DistanceOracle distanceOracle; // the last oracle that was built, or null
+
+    // Builds the distance oracles of this network in the background, one at a time, so the last one
+    // requested is published last. Started by the first rebuildDistanceOracle, stopped by close.
+    private ExecutorService oracleBuilder;
+
+    // The users that were added, moved, or changed since the last checkpoint (see saveDelta)
+    private int[] changedPos;    // the position of i in the changed array if users[i] changed, or -1
+    private int[] changed;       // the indexes of the changed users
+    private int changedCount;    // number of changed users
+
+    // Reverse index: followers[i] holds the indexes of the users that follow users[i], in increasing
+    // order. The methods of this class keep it up to date; bulk loads only mark it as stale, and it is
+    // rebuilt on first use. The users of this network send their own follows changes here (see User.setOwner).
+    private int[][] followers;
+    private int[] followerCounts;
+    private boolean followersValid = true;
+    // Follows of names that are not users of this network (e.g. users of another shard), counted by the
+    // case-insensitive hash of the name and kept with the followers index: a user who joins with such a
+    // name already has followers, so the index has to be rebuilt
+    private final HashMap<Integer, Integer> danglingFollows = new HashMap<Integer, Integer>();
+
+    // Friendship index, maintained together with the followers index: friends[i] holds the indexes of
+    // the users that users[i] follows and that follow users[i] back, in increasing order. A user follows
+    // at most User.maxfCount users, so a friends list is never longer than that.
+    private int[][] friends;
+    private int[] friendCounts;
+    private int[] friendCountUsers = new int[User.maxfCount + 1]; // [c] = number of users with c > 0 friends
+    private int friendshipCount;                                  // number of pairs of friends
+
+    // Tournament tree over the user indexes, kept in step with followerCounts: popular[1] is the most
+    // popular user (the first one, among equals), and the leaves start at popular[leaves].
+    private int[] popular;
+    private int leaves;
+
+    // Core numbers of the undirected follow graph (see KCore), computed on first use and then kept up
+    // to date on every follow and unfollow; removeUser and bulk loads make them stale again. Entries past
+    // the last user are 0. The other arrays are working memory for the incremental updates.
+    private int[] cores;
+    private boolean coresValid;
+    private int[] coreDegree;   // for the candidates of an update: their neighbors with core >= k
+    private int[] coreMark;     // coreEpoch for a candidate of the current update, coreEpoch + 1 for a rejected one
+    private int coreEpoch;
+    private int[] coreStack;
+    private int[] coreList;
+    private int[] neighborBuffer = new int[16];
 
     /** Creates a network with a given maximum number of users. */
     public Network(int maxUserCount) {
         this.users = new User[maxUserCount];
         this.userCount = 0;
+        this.changedPos = new int[maxUserCount];
+        Arrays.fill(changedPos, -1);
+        this.changed = new int[maxUserCount];
+        this.followers = new int[maxUserCount][];
+        this.followerCounts = new int[maxUserCount];
+        this.friends = new int[maxUserCount][];
+        this.friendCounts = new int[maxUserCount];
+        this.leaves = 1;
+        while (leaves < maxUserCount) leaves *= 2;
+        this.popular = new int[2 * leaves];
+        for (int i = 0; i < leaves; i++) {
+            popular[leaves + i] = i;
+        }
+        rebuildPopularity();
+        this.index = new int[Math.max(4, Integer.highestOneBit(Math.max(1, maxUserCount)) * 4)];
     }
 
     /** Creates a network  with some users. The only purpose of this constructor is 
@@ -20,21 +109,428 @@ public class Network {
         users[1] = new User("Bar");
         users[2] = new User("Baz");
         userCount = 3;
+        for (int i = 0; i < userCount; i++) {
+            indexUser(i);
+        }
+        rebuildPopularity();
+    }
+
+    /** Makes this network write every successful addUser, addFollowee, removeFollowee, and removeUser
+     *  (and the batch versions) to the given log, or stops logging if the log is null. The record is on
+     *  disk before the network changes: if the log can't be written, the call throws UncheckedIOException
+     *  and the network is left as it was. A Network is used by one thread, so every single mutation
+     *  waits for an fsync of its own; the batch methods share one fsync, and so do the concurrent
+     *  writers of a ConcurrentNetwork (see ConcurrentNetwork.setLog). */
+    public void setLog(MutationLog log) {
+        this.log = log;
+    }
+
+    /** Puts a Bloom filter with the given false positive rate in front of the name index, so that
+     *  lookups of names that are not users (getUser, addUser, addFollowee, ...) are mostly rejected
+     *  without probing the index. The filter is sized for the capacity of this network; a lower rate
+     *  takes more memory (see NameFilter). A rate of 0 removes the filter. Removed users stay in the
+     *  filter as false positives, so after many removals, calling this again rebuilds it. */
+    public void setNameFilter(double falsePositiveRate) {
+        if (falsePositiveRate == 0) {
+            filter = null;
+            return;
+        }
+        filter = new NameFilter(users.length, falsePositiveRate);
+        for (int i = 0; i < userCount; i++) {
+            filter.addHash(users[i].getNameHash());
+        }
+    }
+
+    /** Puts a Bloom filter with the given false positive rate in front of the follows list of every user
+     *  of this network, and of every user that joins it later (see User.setFollowsFilter). It pays off
+     *  when most follows checks are of names that the users don't follow; a rate of 0 removes the filters. */
+    public void setFollowsFilter(double falsePositiveRate) {
+        if (falsePositiveRate < 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("The false positive rate must be between 0 and 1");
+        }
+        followsFilterRate = falsePositiveRate;
+        for (int i = 0; i < userCount; i++) {
+            users[i].setFollowsFilter(falsePositiveRate);
+        }
     }
 
     public int getUserCount() {
         return this.userCount;
     }
 
+    /** Returns the user at the given index (0 to getUserCount() - 1). Users keep the order in which they
+     *  were added, except that removeUser moves the last user into the place of the removed one. */
+    User userAt(int i) {
+        return users[i];
+    }
+
     /** Finds in this network, and returns, the user that has the given name.
      *  If there is no such user, returns null.
      *  Notice that the method receives a String, and returns a User object. */
     public User getUser(String name) {
-        if (name == null) return null;
+        int i = indexOf(name);
+        return (i < 0) ? null : users[i];
+    }
+
+    /** Finds a whole batch of users: returns an array with the user that has names[k] at index k,
+     *  or null if there is no such user. Every name costs one lookup in the hash index. */
+    public User[] getUsers(String[] names) {
+        User[] result = new User[names.length];
+        for (int k = 0; k < names.length; k++) {
+            int i = indexOf(names[k]);
+            if (i >= 0) result[k] = users[i];
+        }
+        return result;
+    }
+
+    /** Checks whether the user with the given name follows each of the given names (see User.followsAll).
+     *  Returns null if there is no such user. */
+    public BitSet followsAll(String name, String[] names) {
+        User user = getUser(name);
+        return (user == null) ? null : user.followsAll(names);
+    }
+
+    // Returns the index of the user with the given name in the users array, or -1 if there is no such user.
+    // Looks the name up in the hash index, comparing the cached hashes first; allocates nothing.
+    private int indexOf(String name) {
+        if (name == null) return -1;
+        int hash = NameKey.hash(name);
+        if (filter != null && !filter.mightContainHash(hash)) return -1;
+        int mask = index.length - 1;
+        for (int slot = hash & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            User user = users[index[slot] - 1];
+            if (user.getNameHash() == hash && NameKey.equals(user.getName(), name)) return index[slot] - 1;
+        }
+        return -1;
+    }
+
+    /** Returns the index of the user whose name has the given NameDictionary id (ignoring case),
+     *  or -1 if there is no such user. Allocates nothing. */
+    int indexOfId(int nameId) {
+        int hash = NameDictionary.hashIgnoreCase(nameId);
+        int mask = index.length - 1;
+        for (int slot = hash & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            User user = users[index[slot] - 1];
+            if (user.getNameHash() == hash && NameDictionary.equalsIgnoreCase(nameId, user.getName())) return index[slot] - 1;
+        }
+        return -1;
+    }
+
+    // Adds users[i] to the hash index (the name must not be in the index already), and makes this
+    // network its owner
+    private void indexUser(int i) {
+        users[i].setOwner(this);
+        int mask = index.length - 1;
+        int slot = users[i].getNameHash() & mask;
+        while (index[slot] != 0) slot = (slot + 1) & mask;
+        index[slot] = i + 1;
+        if (filter != null) filter.addHash(users[i].getNameHash());
+        if (followsFilterRate != 0) users[i].setFollowsFilter(followsFilterRate);
+    }
+
+    // Removes users[i] from the hash index, and from this network's ownership. Later entries of the
+    // same probe run are shifted back into the hole, so lookups never stop early at it.
+    private void unindexUser(int i) {
+        users[i].setOwner(null);
+        int mask = index.length - 1;
+        int hole = users[i].getNameHash() & mask;
+        while (index[hole] != i + 1) hole = (hole + 1) & mask;
+        index[hole] = 0;
+        for (int slot = (hole + 1) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            int home = users[index[slot] - 1].getNameHash() & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                index[hole] = index[slot];
+                index[slot] = 0;
+                hole = slot;
+            }
+        }
+    }
+
+    // Adds f to the followers of users[j], keeping the list sorted
+    private void addFollower(int j, int f) {
+        if (!insertSorted(followers, followerCounts, j, f)) return;
+        updatePopularity(j);
+        if (contains(followers, followerCounts, f, j)) addFriends(j, f); // j follows f back
+        else if (coresValid) insertCoreEdge(j, f);                      // a new undirected edge
+    }
+
+    // Removes f from the followers of users[j]
+    private void removeFollower(int j, int f) {
+        if (!removeSorted(followers, followerCounts, j, f)) return;
+        updatePopularity(j);
+        if (contains(followers, followerCounts, f, j)) removeFriends(j, f);
+        else if (coresValid) removeCoreEdge(j, f);
+    }
+
+    // Updates the core numbers after the undirected edge (u, v) was added. Only the users with core
+    // number k = min(core u, core v) that are connected to the edge through users with core number k
+    // (the "subcore") can change, and only to k + 1: a candidate keeps k + 1 if more than k of its
+    // neighbors have core >= k and are not rejected candidates.
+    private void insertCoreEdge(int u, int v) {
+        int k = Math.min(cores[u], cores[v]);
+        coreEpoch += 2;
+        int top = 0, listed = 0;
+        if (cores[u] == k) top = pushCandidate(u, top);
+        if (cores[v] == k) top = pushCandidate(v, top);
+        while (top > 0) {
+            int w = coreStack[--top];
+            coreList[listed++] = w;
+            coreDegree[w] = 0;
+            int count = undirectedNeighbors(w);
+            for (int e = 0; e < count; e++) {
+                int x = neighborBuffer[e];
+                if (cores[x] >= k) coreDegree[w]++;
+                if (cores[x] == k && coreMark[x] != coreEpoch) top = pushCandidate(x, top);
+            }
+        }
+        // Rejects the candidates that don't have enough neighbors, which may reject more of them
+        for (int i = 0; i < listed; i++) {
+            int w = coreList[i];
+            if (coreDegree[w] <= k) {
+                coreMark[w] = coreEpoch + 1;
+                coreStack[top++] = w;
+            }
+        }
+        while (top > 0) {
+            int w = coreStack[--top];
+            int count = undirectedNeighbors(w);
+            for (int e = 0; e < count; e++) {
+                int x = neighborBuffer[e];
+                if (coreMark[x] == coreEpoch && --coreDegree[x] <= k) {
+                    coreMark[x] = coreEpoch + 1;
+                    coreStack[top++] = x;
+                }
+            }
+        }
+        for (int i = 0; i < listed; i++) {
+            if (coreMark[coreList[i]] == coreEpoch) cores[coreList[i]]++;
+        }
+    }
+
+    private int pushCandidate(int w, int top) {
+        coreMark[w] = coreEpoch;
+        coreStack[top] = w;
+        return top + 1;
+    }
+
+    // Updates the core numbers after the undirected edge (u, v) was removed. Only users with core
+    // number k = min(core u, core v) can change, and only to k - 1: a user drops when fewer than k of
+    // its neighbors have core >= k, which may make its neighbors with core k drop too.
+    private void removeCoreEdge(int u, int v) {
+        int k = Math.min(cores[u], cores[v]);
+        if (k == 0) return;
+        coreEpoch += 2;
+        int top = 0;
+        if (cores[u] == k) top = dropIfWeak(u, k, top);
+        if (cores[v] == k) top = dropIfWeak(v, k, top);
+        while (top > 0) {
+            int w = coreStack[--top];
+            int count = undirectedNeighbors(w);
+            for (int e = 0; e < count; e++) {
+                int x = neighborBuffer[e];
+                if (cores[x] != k) continue;
+                if (coreMark[x] != coreEpoch) countCoreNeighbors(x, k);
+                if (--coreDegree[x] < k) top = drop(x, top);
+            }
+        }
+    }
+
+    private int dropIfWeak(int w, int k, int top) {
+        countCoreNeighbors(w, k);
+        return (coreDegree[w] < k) ? drop(w, top) : top;
+    }
+
+    // Counts the neighbors of w with core >= k into coreDegree[w]. The users that already dropped in
+    // this update are counted too: every one of them takes itself off its neighbors' counts when it
+    // comes off the stack.
+    private void countCoreNeighbors(int w, int k) {
+        coreMark[w] = coreEpoch;
+        int degree = 0;
+        for (int e = 0; e < followerCounts[w]; e++) {
+            int x = followers[w][e];
+            if (cores[x] >= k || coreMark[x] == coreEpoch + 1) degree++;
+        }
+        User user = users[w];
+        for (int e = 0; e < user.getfCount(); e++) {
+            int x = indexOfId(user.getFolloweeId(e));
+            if (x >= 0 && !contains(followers, followerCounts, w, x) && (cores[x] >= k || coreMark[x] == coreEpoch + 1)) degree++;
+        }
+        coreDegree[w] = degree;
+    }
+
+    private int drop(int w, int top) {
+        cores[w]--;
+        coreMark[w] = coreEpoch + 1;
+        coreStack[top] = w;
+        return top + 1;
+    }
+
+    // Fills neighborBuffer with the neighbors of users[i] in the undirected follow graph (its followers,
+    // and the users it follows that don't follow it back), and returns their number
+    private int undirectedNeighbors(int i) {
+        if (neighborBuffer.length < followerCounts[i] + User.maxfCount) {
+            neighborBuffer = new int[2 * (followerCounts[i] + User.maxfCount)];
+        }
+        int count = followerCounts[i];
+        if (count > 0) System.arraycopy(followers[i], 0, neighborBuffer, 0, count);
+        User user = users[i];
+        for (int e = 0; e < user.getfCount(); e++) {
+            int j = indexOfId(user.getFolloweeId(e));
+            if (j >= 0 && !contains(followers, followerCounts, i, j)) neighborBuffer[count++] = j;
+        }
+        return count;
+    }
+
+    // Computes the core numbers from scratch, if they are stale
+    private void ensureCores() {
+        if (coresValid) return;
+        ensureFollowers();
+        KCore decomposition = KCore.of(getGraph());
+        cores = new int[users.length];
+        for (int i = 0; i < userCount; i++) cores[i] = decomposition.coreNumber(i);
+        if (coreDegree == null) {
+            coreDegree = new int[users.length];
+            coreMark = new int[users.length];
+            coreStack = new int[users.length];
+            coreList = new int[users.length];
+        }
+        coresValid = true;
+    }
+
+    private void addFriends(int a, int b) {
+        insertSorted(friends, friendCounts, a, b);
+        insertSorted(friends, friendCounts, b, a);
+        countFriend(a, +1);
+        countFriend(b, +1);
+        friendshipCount++;
+    }
+
+    private void removeFriends(int a, int b) {
+        removeSorted(friends, friendCounts, a, b);
+        removeSorted(friends, friendCounts, b, a);
+        countFriend(a, -1);
+        countFriend(b, -1);
+        friendshipCount--;
+    }
+
+    // Moves users[i] between the friend count statistics, after its friend count changed by delta
+    private void countFriend(int i, int delta) {
+        int before = friendCounts[i] - delta;
+        if (before > 0) friendCountUsers[before]--;
+        if (friendCounts[i] > 0) friendCountUsers[friendCounts[i]]++;
+    }
+
+    // Inserts value into the sorted list lists[j] (which holds counts[j] values), unless it is there.
+    // Returns true if the value was inserted.
+    private static boolean insertSorted(int[][] lists, int[] counts, int j, int value) {
+        int count = counts[j];
+        if (lists[j] == null) lists[j] = new int[4];
+        else if (count == lists[j].length) lists[j] = Arrays.copyOf(lists[j], 2 * count);
+        int[] list = lists[j];
+        int k = Arrays.binarySearch(list, 0, count, value);
+        if (k >= 0) return false;
+        k = -k - 1;
+        System.arraycopy(list, k, list, k + 1, count - k);
+        list[k] = value;
+        counts[j]++;
+        return true;
+    }
+
+    // Removes value from the sorted list lists[j]. Returns true if the value was there.
+    private static boolean removeSorted(int[][] lists, int[] counts, int j, int value) {
+        int[] list = lists[j];
+        if (list == null) return false;
+        int count = counts[j];
+        int k = Arrays.binarySearch(list, 0, count, value);
+        if (k < 0) return false;
+        System.arraycopy(list, k + 1, list, k, count - k - 1);
+        counts[j]--;
+        return true;
+    }
+
+    private static boolean contains(int[][] lists, int[] counts, int j, int value) {
+        return lists[j] != null && Arrays.binarySearch(lists[j], 0, counts[j], value) >= 0;
+    }
+
+    // Rebuilds the followers index, the popularity tree, and the friendship index, if a bulk load left
+    // them stale
+    private void ensureFollowers() {
+        if (followersValid) return;
+        Arrays.fill(followers, null);
+        Arrays.fill(followerCounts, 0);
+        danglingFollows.clear();
         for (int i = 0; i < userCount; i++) {
-            if (users[i].getName().toLowerCase().equalsIgnoreCase(name.toLowerCase())) return users[i];
+            User user = users[i];
+            for (int k = 0; k < user.getfCount(); k++) {
+                int j = indexOfId(user.getFolloweeId(k));
+                if (j < 0) {
+                    danglingFollows.merge(NameDictionary.hashIgnoreCase(user.getFolloweeId(k)), 1, Integer::sum);
+                    continue;
+                }
+                // i only grows, so appending keeps the lists sorted
+                int count = followerCounts[j];
+                if (followers[j] == null) followers[j] = new int[4];
+                else if (count == followers[j].length) followers[j] = Arrays.copyOf(followers[j], 2 * count);
+                followers[j][count] = i;
+                followerCounts[j]++;
+            }
+        }
+        rebuildPopularity();
+        Arrays.fill(friends, null);
+        Arrays.fill(friendCounts, 0);
+        Arrays.fill(friendCountUsers, 0);
+        friendshipCount = 0;
+        for (int j = 0; j < userCount; j++) {
+            // every follower f of j that j follows back is a friend; each pair is added once, from its larger index
+            for (int k = 0; k < followerCounts[j] && followers[j][k] < j; k++) {
+                int f = followers[j][k];
+                if (contains(followers, followerCounts, f, j)) addFriends(j, f);
+            }
+        }
+        followersValid = true;
+    }
+
+    // Returns the more popular of users[a] and users[b]: more followers, or the smaller index among
+    // equals (like a scan in order). Indexes past the last user lose to every user.
+    private int morePopular(int a, int b) {
+        int countA = (a < userCount) ? followerCounts[a] : -1;
+        int countB = (b < userCount) ? followerCounts[b] : -1;
+        if (countA != countB) return (countA > countB) ? a : b;
+        return Math.min(a, b);
+    }
+
+    // Replays the matches on the path from the leaf of users[i] to the root - O(log n)
+    private void updatePopularity(int i) {
+        for (int node = (leaves + i) >> 1; node >= 1; node >>= 1) {
+            popular[node] = morePopular(popular[2 * node], popular[2 * node + 1]);
+        }
+    }
+
+    private void rebuildPopularity() {
+        for (int node = leaves - 1; node >= 1; node--) {
+            popular[node] = morePopular(popular[2 * node], popular[2 * node + 1]);
+        }
+    }
+
+    // Writes a mutation to the log, if there is one, before it is made: if the log fails, the
+    // network is left unchanged
+    private void logMutation(int op, String name1, String name2) {
+        if (log == null) return;
+        try {
+            log.append(op, name1, name2);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Writes count mutations of the same kind to the log, if there is one, with a single wait
+    private void logBatch(int op, String[] names1, String[] names2, int count) {
+        if (log == null) return;
+        try {
+            log.appendAll(op, names1, names2, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return null;
     }
 
     /** Adds a new user with the given name to this network.
@@ -55,12 +551,114 @@ public class Network {
             return false;
         }
         else {
-            users[userCount] = new User (name);
-            userCount++;
+            logMutation(MutationLog.ADD_USER, name, null);
+            appendUser(name);
             return true;
         }
     }
 
+    // Adds a new user, after the checks of addUser
+    private void appendUser(String name) {
+        users[userCount] = new User (name);
+        indexUser(userCount);
+        attachEarlierFollowers(userCount);
+        markChanged(userCount);
+        userCount++;
+        updatePopularity(userCount - 1);
+        dropGraph();
+    }
+
+    /** Adds the given names as new users, in order, without printing anything. A name is skipped if it
+     *  is null, if it is already a user (or appeared earlier in the batch, ignoring case), or if this
+     *  network is full. Returns a bitmap with bit k set if the k'th name was added.
+     *  Every name costs one lookup in the hash index, and a log (if any) is written once for the batch. */
+    public BitSet addUsers(Collection<String> names) {
+        BitSet added = new BitSet(names.size());
+        String[] logged = new String[names.size()];
+        int addedCount = 0;
+        int k = 0;
+        // The new users go into the free slots and the hash index first, so later names of the batch
+        // see them; they become users only after the log is written
+        for (String name : names) {
+            if (name != null && userCount + addedCount < users.length && indexOf(name) < 0) {
+                users[userCount + addedCount] = new User(name);
+                indexUser(userCount + addedCount);
+                logged[addedCount++] = name;
+                added.set(k);
+            }
+            k++;
+        }
+        try {
+            logBatch(MutationLog.ADD_USER, logged, null, addedCount);
+        } catch (UncheckedIOException e) {
+            for (int j = userCount + addedCount - 1; j >= userCount; j--) {
+                unindexUser(j);
+                users[j] = null;
+            }
+            throw e;
+        }
+        for (int j = 0; j < addedCount; j++) {
+            attachEarlierFollowers(userCount);
+            markChanged(userCount);
+            userCount++;
+            updatePopularity(userCount - 1);
+        }
+        if (addedCount > 0) dropGraph();
+        return added;
+    }
+
+    /** Makes names1[k] follow names2[k], for every k, without printing anything. A pair is skipped if
+     *  any of the names is null or not a user, if the two are the same user, if names1[k] already
+     *  follows names2[k] (also because of an earlier pair of the batch), or if its follows list is full.
+     *  Returns a bitmap with bit k set if the k'th pair was added. Every pair costs two lookups in the
+     *  hash index, and a log (if any) is written once for the batch. */
+    public BitSet addFollowees(String[] names1, String[] names2) {
+        if (names1.length != names2.length) throw new IllegalArgumentException("The name arrays have different lengths");
+        BitSet added = new BitSet(names1.length);
+        String[] logged1 = new String[names1.length];
+        String[] logged2 = new String[names1.length];
+        int[] followers1 = new int[names1.length];
+        int[] followees2 = new int[names1.length];
+        int addedCount = 0;
+        // The follows lists change first, so later pairs of the batch see the earlier ones;
+        // the indexes change only after the log is written
+        for (int k = 0; k < names1.length; k++) {
+            int i1 = indexOf(names1[k]);
+            int i2 = indexOf(names2[k]);
+            if (i1 < 0 || i2 < 0 || i1 == i2) continue;
+            User user = users[i1];
+            if (user.getfCount() == User.maxfCount) continue;
+            // the followee's user already has the hash of the name, and its id if it is spelled the same
+            User followee = users[i2];
+            int hash = followee.getNameHash();
+            int id = names2[k].equals(followee.getName()) ? followee.getNameId() : NameDictionary.intern(names2[k]);
+            if (user.followsId(id, hash)) continue;
+            user.appendFolloweeId(id, hash);
+            logged1[addedCount] = names1[k];
+            logged2[addedCount] = names2[k];
+            followers1[addedCount] = i1;
+            followees2[addedCount] = i2;
+            addedCount++;
+            added.set(k);
+        }
+        try {
+            logBatch(MutationLog.ADD_FOLLOWEE, logged1, logged2, addedCount);
+        } catch (UncheckedIOException e) {
+            // every pair is the last followee of its user, once the later pairs are taken back
+            for (int j = addedCount - 1; j >= 0; j--) {
+                User user = users[followers1[j]];
+                user.removeFolloweeId(user.getFolloweeId(user.getfCount() - 1));
+            }
+            throw e;
+        }
+        for (int j = 0; j < addedCount; j++) {
+            markChanged(followers1[j]);
+            if (followersValid) addFollower(followees2[j], followers1[j]);
+            graphFollowChanged(followers1[j], followees2[j], true);
+        }
+        return added;
+    }
+
     /** Makes the user with name1 follow the user with name2. If successful, returns true.
      *  If any of the two names is not a user in this network,
      *  or if the "follows" addition failed for some reason, returns false. */
@@ -69,17 +667,236 @@ public class Network {
             System.out.println("\n...Can't do this action with a null user...");
             return false;
         }
-        if (name1.toLowerCase().equals(name2.toLowerCase())) {
+        if (NameKey.equals(name1, name2)) {
+            System.out.println("\n...Can't do this action for the same user...");
+            return false;
+        }
+        if (getUser(name2) == null) {
+            System.out.println("\n...Can't do this action with user that doesn't exict in the list...");
+            return false;
+        }
+        return addExternalFollowee(name1, name2);
+    }
+
+    /** Makes the user with name1 follow name2, where the caller already checked that name2 is a user
+     *  (possibly of another network, e.g. another shard of a ShardedNetwork). If successful, returns true.
+     *  Unlike addFollowee, it doesn't check that name2 is a user of this network, so only callers that
+     *  check it themselves use it: ShardedNetwork, and NetworkNode for PartitionedNetwork. A follow of a
+     *  name that is not a user here is attached to its followers if the name joins later. */
+    boolean addExternalFollowee(String name1, String name2) {
+        if (name1 == null || name2 == null) {
+            System.out.println("\n...Can't do this action with a null user...");
+            return false;
+        }
+        if (NameKey.equals(name1, name2)) {
             System.out.println("\n...Can't do this action for the same user...");
             return false;
         }
-        if (getUser(name1) == null || getUser(name2) == null) {
+        int i1 = indexOf(name1);
+        if (i1 < 0) {
+            System.out.println("\n...Can't do this action with user that doesn't exict in the list...");
+            return false;
+        }
+        if (!users[i1].canAddFollowee(name2)) return false;
+        logMutation(MutationLog.ADD_FOLLOWEE, name1, name2);
+        users[i1].insertFollowee(name2);
+        followeeAdded(i1, name2);
+        return true;
+    }
+
+    // Updates the change tracking and the followers index after users[i1] started following name2
+    private void followeeAdded(int i1, String name2) {
+        markChanged(i1);
+        if (!followersValid && graph == null) return;
+        int i2 = indexOf(name2);
+        if (i2 < 0) {
+            if (followersValid) danglingFollows.merge(NameKey.hash(name2), 1, Integer::sum);
+            return;
+        }
+        if (followersValid) addFollower(i2, i1);
+        graphFollowChanged(i1, i2, true);
+    }
+
+    /** Makes the user with name1 stop following the user with name2. If successful, returns true.
+     *  If name1 is not a user in this network, or if it doesn't follow name2, returns false. */
+    public boolean removeFollowee(String name1, String name2) {
+        if (name1 == null || name2 == null) {
+            System.out.println("\n...Can't do this action with a null user...");
+            return false;
+        }
+        int i1 = indexOf(name1);
+        if (i1 < 0) {
             System.out.println("\n...Can't do this action with user that doesn't exict in the list...");
             return false;
         }
-        User user1 = getUser(name1);
-        User user2 = getUser(name2);
-        return user1.addFollowee(name2);
+        if (!users[i1].canRemoveFollowee(name2)) return false;
+        logMutation(MutationLog.REMOVE_FOLLOWEE, name1, name2);
+        users[i1].deleteFollowee(name2);
+        followeeRemoved(i1, name2);
+        return true;
+    }
+
+    // Updates the change tracking and the followers index after users[i1] stopped following name2
+    private void followeeRemoved(int i1, String name2) {
+        markChanged(i1);
+        if (!followersValid && graph == null) return;
+        int i2 = indexOf(name2);
+        if (i2 < 0) {
+            if (followersValid) forgetDanglingFollow(NameKey.hash(name2));
+            return;
+        }
+        if (followersValid) removeFollower(i2, i1);
+        graphFollowChanged(i1, i2, false);
+    }
+
+    // The number of changed follows that a graph always takes before it is dropped, even a small one
+    private static final int MIN_GRAPH_CHANGES = 1024;
+
+    // Records that users[i1] started (or stopped) following users[i2] in the changes of the last graph,
+    // so distance queries don't rebuild it after every follow. Once the changes are more than a
+    // sixteenth of the follows in the graph, it is dropped, and the next query builds a new one.
+    private void graphFollowChanged(int i1, int i2, boolean added) {
+        if (graph == null) return;
+        if (graphChanges == null) graphChanges = new NetworkGraph.Changes(graph);
+        if (added) graphChanges.add(i1, i2);
+        else graphChanges.remove(i1, i2);
+        if (graphChanges.size() > Math.max(MIN_GRAPH_CHANGES, graph.getEdgeCount() / 16)) dropGraph();
+    }
+
+    // Counts one follow less of a name (by its hash) that is not a user
+    private void forgetDanglingFollow(int hash) {
+        danglingFollows.computeIfPresent(hash, (key, count) -> (count == 1) ? null : count - 1);
+    }
+
+    // Called after users[i] joined: if somebody may already follow its name, the followers index (and
+    // with it the friends and the core numbers) is rebuilt on its next use
+    private void attachEarlierFollowers(int i) {
+        if (followersValid && danglingFollows.containsKey(users[i].getNameHash())) {
+            followersValid = false;
+            coresValid = false;
+        }
+    }
+
+    // Forgets the last graph, after a change that its changes can't express
+    private void dropGraph() {
+        graph = null;
+        graphChanges = null;
+    }
+
+    /** Removes the user with the given name from this network, and from the follows lists of all the
+     *  users that follow it. If successful, returns true; if there is no such user, returns false.
+     *  The followers are found through the followers index, so this takes time proportional to the
+     *  number of followers and followees of the user, not to the size of the network.
+     *  The last user in the network moves into the freed place (see userAt). */
+    public boolean removeUser(String name) {
+        int i = indexOf(name);
+        if (i < 0) {
+            System.out.println("\n...Can't remove " + name + " - not a user in this network...");
+            return false;
+        }
+        logMutation(MutationLog.REMOVE_USER, users[i].getName(), null);
+        removeAt(i);
+        return true;
+    }
+
+    // Removes users[i], after the checks of removeUser
+    private void removeAt(int i) {
+        ensureFollowers();
+        coresValid = false; // recomputed on the next query
+        User user = users[i];
+        int nameId = user.getNameId();
+        for (int k = 0; k < followerCounts[i]; k++) {
+            int f = followers[i][k];
+            users[f].removeFolloweeId(nameId);
+            markChanged(f);
+        }
+        for (int k = 0; k < user.getfCount(); k++) {
+            int j = indexOfId(user.getFolloweeId(k));
+            if (j >= 0) removeFollower(j, i);
+            else forgetDanglingFollow(NameDictionary.hashIgnoreCase(user.getFolloweeId(k)));
+        }
+        followers[i] = null;
+        followerCounts[i] = 0;
+        removeSlot(i);
+    }
+
+    /** Applies one record of a MutationLog (see MutationLog.replay), with the same checks as the
+     *  mutation that wrote it, but without printing anything or writing to a log.
+     *  Returns true if the network changed. */
+    boolean applyLogged(int op, String name1, String name2) {
+        if (name1 == null) return false;
+        if (op == MutationLog.ADD_USER) {
+            if (userCount == users.length || indexOf(name1) >= 0) return false;
+            appendUser(name1);
+            return true;
+        }
+        if (op == MutationLog.REMOVE_USER) {
+            int i = indexOf(name1);
+            if (i < 0) return false;
+            removeAt(i);
+            return true;
+        }
+        int i1 = indexOf(name1);
+        if (i1 < 0 || name2 == null) return false;
+        User user = users[i1];
+        if (op == MutationLog.ADD_FOLLOWEE) {
+            if (NameKey.equals(name1, name2) || user.getfCount() == User.maxfCount || user.follows(name2)) return false;
+            user.appendFollowee(name2);
+            followeeAdded(i1, name2);
+            return true;
+        }
+        if (op == MutationLog.REMOVE_FOLLOWEE) {
+            if (!user.removeFolloweeId(NameDictionary.intern(name2))) return false;
+            followeeRemoved(i1, name2);
+            return true;
+        }
+        return false;
+    }
+
+    // Frees users[i] by moving the last user into its place, and updates the hash index, the changed
+    // users, and the followers index. Nobody may be left in followers[i].
+    private void removeSlot(int i) {
+        dropGraph();
+        int last = userCount - 1;
+        unindexUser(i);
+        unmarkChanged(i);
+        if (i != last) {
+            unindexUser(last);
+            unmarkChanged(last);
+            users[i] = users[last];
+            indexUser(i);
+            markChanged(i); // the next delta records the new place of the moved user
+            if (followersValid) {
+                // the followers of the moved user follow it by name, so only the index moves;
+                // but its followees list it under its old index
+                followers[i] = followers[last];
+                followerCounts[i] = followerCounts[last];
+                followers[last] = null;
+                followerCounts[last] = 0;
+                User moved = users[i];
+                for (int k = 0; k < moved.getfCount(); k++) {
+                    int j = indexOfId(moved.getFolloweeId(k));
+                    if (j >= 0) {
+                        removeSorted(followers, followerCounts, j, last);
+                        insertSorted(followers, followerCounts, j, i);
+                    }
+                }
+                // the same for its friends, whose number doesn't change
+                friends[i] = friends[last];
+                friendCounts[i] = friendCounts[last];
+                friends[last] = null;
+                friendCounts[last] = 0;
+                for (int k = 0; k < friendCounts[i]; k++) {
+                    int j = friends[i][k];
+                    removeSorted(friends, friendCounts, j, last);
+                    insertSorted(friends, friendCounts, j, i);
+                }
+            }
+        }
+        users[last] = null;
+        userCount--;
+        updatePopularity(i);
+        updatePopularity(last);
     }
     
     /** For the user with the given name, recommends another user to follow. The recommended user is
@@ -102,29 +919,610 @@ public class Network {
         return mostRecommendedUserToFollow.getName();
     }
 
+    /** Like recommendWhoToFollow(name), but if sameCommunity is true, only the users in the community
+     *  of the given user are candidates (see communities), which are usually a small part of the network.
+     *  Reads the result of the last call to communities, or finds the communities if it was never
+     *  called. Returns null if there is no such user, or if no candidate follows anybody that it follows. */
+    public String recommendWhoToFollow(String name, boolean sameCommunity) {
+        if (!sameCommunity) return recommendWhoToFollow(name);
+        User user = getUser(name);
+        if (user == null) return null;
+        if (communities == null) communities();
+        NetworkGraph g = communities.getGraph();
+        int u = g.indexOf(name);
+        if (u < 0) return null; // joined after the communities were found
+        String recommended = null;
+        int maxMutual = 0;
+        for (int v : communities.members(communities.communityOf(u))) {
+            if (v == u) continue;
+            User candidate = getUser(g.name(v));
+            if (candidate == null) continue; // removed since
+            int mutual = candidate.countMutual(user);
+            if (mutual > maxMutual) {
+                recommended = candidate.getName();
+                maxMutual = mutual;
+            }
+        }
+        return recommended;
+    }
+
     /** Computes and returns the name of the most popular user in this network: 
-     *  The user who appears the most in the follow lists of all the users. */
+     *  The user who appears the most in the follow lists of all the users.
+     *  Among users with the same number of followers, the first one wins. Addition and removal of
+     *  follows keep the answer up to date, so this takes O(1) (after a bulk load, the first call
+     *  rebuilds the followers index). */
     public String mostPopularUser() {
         if (userCount == 0) return null;
-        User mostPopular = null;
-        int maxFolowees = 0;
+        ensureFollowers();
+        return users[popular[1]].getName();
+    }
+
+    /** Returns the number of times that the given name appears in the follows lists of all
+     *  the users in this network, or -1 if the name is not a user in this network.
+     *  Note: A name can appear 0 or 1 times in each list. */
+    public int getFollowerCount(String name) {
+        int i = indexOf(name);
+        if (i < 0) return -1;
+        ensureFollowers();
+        return followerCounts[i];
+    }
+
+    /** Returns a snapshot of the follow graph of this network, for graph algorithms. The snapshot is
+     *  kept and shared until this network changes, so repeated queries don't rebuild it. */
+    public NetworkGraph getGraph() {
+        if (graphChanges != null) dropGraph();
+        return lastGraph();
+    }
+
+    // Returns the last graph, building one if there is none. Follows that changed since it was taken
+    // are in graphChanges; distance and shortestPath search it with them instead of rebuilding it.
+    private NetworkGraph lastGraph() {
+        if (graph == null) graph = NetworkGraph.of(this);
+        return graph;
+    }
+
+    /** Returns the length of the shortest chain of follows from the user with name1 to the user with
+     *  name2 (1 if name1 follows name2, 0 for the same user), or -1 if there is no such chain or no such user. */
+    public int distance(String name1, String name2) {
+        NetworkGraph g = lastGraph();
+        int a = g.indexOf(name1);
+        int b = g.indexOf(name2);
+        return (a < 0 || b < 0) ? -1 : g.distance(a, b, graphChanges);
+    }
+
+    /** Returns the names on a shortest chain of follows from the user with name1 to the user with
+     *  name2, starting with name1 and ending with name2, or null if there is no such chain or no such user. */
+    public String[] shortestPath(String name1, String name2) {
+        NetworkGraph g = lastGraph();
+        int a = g.indexOf(name1);
+        int b = g.indexOf(name2);
+        if (a < 0 || b < 0) return null;
+        int[] path = g.shortestPath(a, b, graphChanges);
+        if (path == null) return null;
+        String[] names = new String[path.length];
+        for (int k = 0; k < path.length; k++) names[k] = g.name(path[k]);
+        return names;
+    }
+
+    /** Builds a new distance oracle with the given number of landmarks (see DistanceOracle) in a
+     *  background thread, from a snapshot of the network taken now, and uses it for approximateDistance
+     *  once it is done. Until then, approximateDistance keeps using the last oracle. */
+    public Future<DistanceOracle> rebuildDistanceOracle(int landmarks) {
+        NetworkGraph snapshot = getGraph();
+        if (oracleBuilder == null) {
+            oracleBuilder = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "distance-oracle-builder");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return oracleBuilder.submit(() -> {
+            DistanceOracle oracle = DistanceOracle.of(snapshot, landmarks);
+            distanceOracle = oracle;
+            return oracle;
+        });
+    }
+
+    /** Stops the thread that builds distance oracles, once the builds that were already requested are
+     *  done. The network stays usable: a later rebuildDistanceOracle starts a new thread. */
+    public void close() {
+        if (oracleBuilder == null) return;
+        oracleBuilder.shutdown();
+        oracleBuilder = null;
+    }
+
+    /** Returns an approximate length of the shortest chain of follows from the user with name1 to the
+     *  user with name2, in O(k) for k landmarks: never less than the true length, and usually equal or
+     *  close to it. Returns -1 if the oracle found no chain, or if any of the names is not a user. Reads
+     *  the last oracle that was built (so it doesn't see later changes, or users added since), or builds
+     *  one with 16 landmarks if rebuildDistanceOracle was never called. */
+    public int approximateDistance(String name1, String name2) {
+        DistanceOracle oracle = distanceOracle;
+        if (oracle == null) oracle = distanceOracle = DistanceOracle.of(getGraph(), 16);
+        NetworkGraph g = oracle.getGraph();
+        int a = g.indexOf(name1);
+        int b = g.indexOf(name2);
+        return (a < 0 || b < 0) ? -1 : oracle.distance(a, b);
+    }
+
+    /** Labels every user with its connected component, taking every follow as an undirected edge
+     *  (see Components). The users of a component are numbered in the order of getGraph(). */
+    public Components connectedComponents() {
+        return Components.of(getGraph());
+    }
+
+    /** Finds the strongly connected components of the follow graph and the condensed DAG between them
+     *  (see StrongComponents). The users are numbered in the order of getGraph(). */
+    public StrongComponents stronglyConnectedComponents() {
+        return StrongComponents.of(getGraph());
+    }
+
+    /** Computes the PageRank of every user (see PageRank), with the given damping factor (usually 0.85),
+     *  iterating until the ranks change by less than the given tolerance. The result is kept for
+     *  topByPageRank. */
+    public PageRank pageRank(double damping, double tolerance) {
+        pageRank = PageRank.of(getGraph(), damping, tolerance);
+        return pageRank;
+    }
+
+    /** Returns the names of the k users with the highest PageRank, highest first. Reads the result
+     *  of the last call to pageRank (so it doesn't see later changes), or computes the ranks with
+     *  damping 0.85 and tolerance 1e-6 if pageRank was never called. */
+    public String[] topByPageRank(int k) {
+        if (pageRank == null) pageRank(0.85, 1e-6);
+        int[] top = pageRank.top(k);
+        String[] names = new String[top.length];
+        for (int i = 0; i < top.length; i++) names[i] = pageRank.getGraph().name(top[i]);
+        return names;
+    }
+
+    /** Finds communities of densely connected users by label propagation (see Communities). The
+     *  users are numbered in the order of getGraph(). The result is kept for communityOf and
+     *  recommendWhoToFollow(name, true). */
+    public Communities communities() {
+        communities = Communities.of(getGraph());
+        return communities;
+    }
+
+    /** Returns the community of the user with the given name, or -1 if there is no such user. Reads
+     *  the result of the last call to communities (so it doesn't see later changes), or finds the
+     *  communities if it was never called. */
+    public int communityOf(String name) {
+        if (communities == null) communities();
+        return communities.communityOf(name);
+    }
+
+    /** Returns the core number of the user with the given name in the undirected follow graph (see
+     *  KCore), or -1 if there is no such user. The first call computes all the core numbers in O(N + E);
+     *  after that, follows and unfollows update them incrementally. */
+    public int coreNumber(String name) {
+        int i = indexOf(name);
+        if (i < 0) return -1;
+        ensureCores();
+        return cores[i];
+    }
+
+    /** Returns the largest core number in this network (0 if it is empty). */
+    public int getMaxCore() {
+        ensureCores();
+        int max = 0;
+        for (int i = 0; i < userCount; i++) max = Math.max(max, cores[i]);
+        return max;
+    }
+
+    /** Returns the names of the users in the k-core: the users whose core number is at least k. */
+    public String[] usersInCore(int k) {
+        ensureCores();
+        int count = 0;
+        for (int i = 0; i < userCount; i++) {
+            if (cores[i] >= k) count++;
+        }
+        String[] names = new String[count];
+        count = 0;
+        for (int i = 0; i < userCount; i++) {
+            if (cores[i] >= k) names[count++] = users[i].getName();
+        }
+        return names;
+    }
+
+    /** Returns true if the users with the two names follow each other (see User.isFriendOf).
+     *  Looks the pair up in the friendship index, which has at most User.maxfCount friends per user. */
+    public boolean isFriendOf(String name1, String name2) {
+        int i1 = indexOf(name1);
+        int i2 = indexOf(name2);
+        if (i1 < 0 || i2 < 0) return false;
+        ensureFollowers();
+        return contains(friends, friendCounts, i1, i2);
+    }
+
+    /** Returns the names of the friends of the user with the given name (the users that it follows and
+     *  that follow it back), or null if there is no such user. */
+    public String[] friendsOf(String name) {
+        int i = indexOf(name);
+        if (i < 0) return null;
+        ensureFollowers();
+        String[] names = new String[friendCounts[i]];
+        for (int k = 0; k < names.length; k++) {
+            names[k] = users[friends[i][k]].getName();
+        }
+        return names;
+    }
+
+    /** Returns the number of pairs of friends in this network. */
+    public int getFriendshipCount() {
+        ensureFollowers();
+        return friendshipCount;
+    }
+
+    /** Returns the friend count statistics of this network: element c of the returned array is the
+     *  number of users that have exactly c friends (0 to User.maxfCount). */
+    public int[] getFriendCountHistogram() {
+        ensureFollowers();
+        int[] histogram = Arrays.copyOf(friendCountUsers, friendCountUsers.length);
+        histogram[0] = userCount;
+        for (int c = 1; c < histogram.length; c++) {
+            histogram[0] -= histogram[c];
+        }
+        return histogram;
+    }
+
+    /** Appends the given user to this network without any checks or printing.
+     *  Used by bulk loaders that already verified the names are distinct and fit in this network. */
+    void appendLoadedUser(User user) {
+        users[userCount] = user;
+        indexUser(userCount);
+        userCount++;
+        followersValid = false;
+        coresValid = false;
+        dropGraph();
+    }
+
+    // Snapshot format: magic, version, capacity, user count, name count, the names (users first),
+    // then for every user its follows count and the ids of the names it follows, all as varints.
+    // The last 8 bytes are the CRC32 of everything before them.
+    private static final int SNAPSHOT_MAGIC = 0x4E455457; // "NETW"
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /** The largest capacity that load accepts by default. A larger snapshot needs load(in, maxUserCount). */
+    public static final int MAX_SNAPSHOT_CAPACITY = 1 << 24;
+    // The longest name (in UTF-8 bytes) that can be written to or read from a snapshot, delta, or socket
+    static final int MAX_NAME_BYTES = 1 << 16;
+
+    /** Writes a compact binary snapshot of this network to the given stream.
+     *  Every distinct name is written once, and the follows lists refer to names by id.
+     *  The stream is flushed but not closed. */
+    public void save(OutputStream out) throws IOException {
+        // Numbers the names: users get 0..userCount-1, followees that are not users come after them.
+        // The follows lists already hold NameDictionary ids, so no name is decoded.
+        NameTable names = new NameTable();
         for (int i = 0; i < userCount; i++) {
-            if (mostPopular == null || followeeCount(users[i].getName()) > maxFolowees) {
-                mostPopular = users[i];
-                maxFolowees = followeeCount(users[i].getName());
+            names.add(users[i].getNameId());
+        }
+        for (int i = 0; i < userCount; i++) {
+            for (int j = 0; j < users[i].getfCount(); j++) {
+                names.add(users[i].getFolloweeId(j));
+            }
+        }
+
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out), new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        data.writeInt(SNAPSHOT_MAGIC);
+        data.writeByte(SNAPSHOT_VERSION);
+        Varint.write(data, users.length);
+        Varint.write(data, userCount);
+        names.write(data);
+        for (int i = 0; i < userCount; i++) {
+            int fCount = users[i].getfCount();
+            Varint.write(data, fCount);
+            for (int j = 0; j < fCount; j++) {
+                Varint.write(data, names.get(users[i].getFolloweeId(j)));
             }
         }
-        return mostPopular.getName();
+        data.writeLong(checked.getChecksum().getValue());
+        data.flush();
     }
 
-    /** Returns the number of times that the given name appears in the follows lists of all
-     *  the users in this network. Note: A name can appear 0 or 1 times in each list. */
-    private int followeeCount (String name) {
-        int counter = 0;
+    /** Writes a snapshot like save, and starts a new checkpoint: the next saveDelta has only the changes
+     *  made after this call. Used by CheckpointStore when it writes a base; save itself leaves the
+     *  change tracking alone, so a snapshot taken for another purpose doesn't drop changes from the next delta. */
+    void checkpointBase(OutputStream out) throws IOException {
+        save(out);
+        clearChanged();
+    }
+
+    /** Reads a network that was written by save. The users and their follows lists are
+     *  rebuilt directly, without repeating the duplicate checks of addUser and addFollowee.
+     *  Throws IOException if the data is not a snapshot, if it is truncated or corrupted,
+     *  or if its capacity is more than MAX_SNAPSHOT_CAPACITY. */
+    public static Network load(InputStream in) throws IOException {
+        return load(in, MAX_SNAPSHOT_CAPACITY);
+    }
+
+    /** Reads a network that was written by save, like load(in), but accepts a capacity of up to
+     *  maxUserCount. The header is checked against this limit before anything is allocated, so a
+     *  corrupted header fails with IOException rather than with OutOfMemoryError. */
+    public static Network load(InputStream in, int maxUserCount) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(in), new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        if (data.readInt() != SNAPSHOT_MAGIC) throw new IOException("Not a network snapshot");
+        int version = data.readUnsignedByte();
+        if (version != SNAPSHOT_VERSION) throw new IOException("Unsupported snapshot version " + version);
+        int capacity = Varint.read(data);
+        int userCount = Varint.read(data);
+        int nameCount = Varint.read(data);
+        if (capacity > maxUserCount) throw new IOException("Snapshot capacity " + capacity + " is over the limit of " + maxUserCount);
+        // Every name is a user, or is followed by a user
+        if (capacity < 0 || userCount < 0 || userCount > capacity || userCount > nameCount || nameCount > (long) userCount * (User.maxfCount + 1)) {
+            throw new IOException("Corrupted snapshot header");
+        }
+
+        ReadNames names = new ReadNames(data, nameCount, userCount);
+        Network network = new Network(capacity);
         for (int i = 0; i < userCount; i++) {
-            if (users[i].follows(name) && !users[i].getName().equals(name)) counter++;
+            User user = new User(names.userNames[i]);
+            int fCount = Varint.read(data);
+            if (fCount > User.maxfCount) throw new IOException("Corrupted snapshot: " + names.userNames[i] + " follows too many users");
+            for (int j = 0; j < fCount; j++) {
+                names.appendTo(user, Varint.read(data));
+            }
+            network.users[i] = user;
+            network.indexUser(i);
+        }
+        network.userCount = userCount;
+        network.followersValid = false;
+        network.coresValid = false;
+
+        long expected = checked.getChecksum().getValue();
+        if (data.readLong() != expected) throw new IOException("Snapshot checksum mismatch");
+        return network;
+    }
+
+    // Delta format: magic, version, the user count, the name count and the names, the number of changed
+    // users, then for every changed user its slot (its index in the users array), the id of its name,
+    // its follows count, and the ids of the names it follows, as in a snapshot. Ends with a CRC32.
+    // A user that moved to another slot (when the last user fills the slot of a removed one) counts as
+    // changed, so every slot that is not in the delta holds the same user as before.
+    private static final int DELTA_MAGIC = 0x4E455444; // "NETD"
+    private static final int DELTA_VERSION = 3;
+
+    /** Writes a delta checkpoint to the given stream: only the users that were added or moved, or whose
+     *  follows lists changed, since the last checkpoint (the last call to saveDelta, or the last base
+     *  that a CheckpointStore wrote), with their places in the order of the users.
+     *  Applying the deltas in order (see applyDelta) on top of the last full snapshot gives this network,
+     *  with its users in the same order. The stream is flushed but not closed. */
+    public void saveDelta(OutputStream out) throws IOException {
+        NameTable names = new NameTable();
+        for (int k = 0; k < changedCount; k++) {
+            User user = users[changed[k]];
+            names.add(user.getNameId());
+            for (int j = 0; j < user.getfCount(); j++) {
+                names.add(user.getFolloweeId(j));
+            }
+        }
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out), new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        data.writeInt(DELTA_MAGIC);
+        data.writeByte(DELTA_VERSION);
+        Varint.write(data, userCount);
+        names.write(data);
+        Varint.write(data, changedCount);
+        for (int k = 0; k < changedCount; k++) {
+            User user = users[changed[k]];
+            Varint.write(data, changed[k]);
+            Varint.write(data, names.get(user.getNameId()));
+            int fCount = user.getfCount();
+            Varint.write(data, fCount);
+            for (int j = 0; j < fCount; j++) {
+                Varint.write(data, names.get(user.getFolloweeId(j)));
+            }
+        }
+        data.writeLong(checked.getChecksum().getValue());
+        data.flush();
+        clearChanged();
+    }
+
+    /** Applies a delta that was written by saveDelta: puts every user of the delta in its place, and drops
+     *  the users past the new user count. The whole delta is read and verified before this network is
+     *  changed. Throws IOException if the delta is corrupted, or if this network can't hold the new users. */
+    public void applyDelta(InputStream in) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(in), new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        if (data.readInt() != DELTA_MAGIC) throw new IOException("Not a network delta");
+        int version = data.readUnsignedByte();
+        if (version != DELTA_VERSION) throw new IOException("Unsupported delta version " + version);
+        int newCount = Varint.read(data);
+        if (newCount < 0 || newCount > users.length) throw new IOException("Can't apply delta - the network is full");
+        int nameCount = Varint.read(data);
+        if (nameCount < 0) throw new IOException("Corrupted delta header");
+        ReadNames names = new ReadNames(data, nameCount, 0);
+        int count = Varint.read(data);
+        if (count < 0) throw new IOException("Corrupted delta header");
+        // The arrays grow as the records are read, so a wrong count runs into the end of the data first
+        User[] records = new User[Math.min(count, 1024)];
+        int[] slots = new int[Math.min(count, 1024)];
+        int added = 0; // records in the slots from userCount on, which must fill them all
+        for (int k = 0; k < count; k++) {
+            if (k == records.length) {
+                records = Arrays.copyOf(records, (int) Math.min(count, 2L * k));
+                slots = Arrays.copyOf(slots, records.length);
+            }
+            slots[k] = Varint.read(data);
+            if (slots[k] < 0 || slots[k] >= newCount) throw new IOException("Corrupted delta: slot " + slots[k]);
+            if (slots[k] >= userCount) added++;
+            records[k] = new User(names.name(Varint.read(data)));
+            int fCount = Varint.read(data);
+            if (fCount > User.maxfCount) throw new IOException("Corrupted delta: " + records[k].getName() + " follows too many users");
+            for (int j = 0; j < fCount; j++) {
+                names.appendTo(records[k], Varint.read(data));
+            }
+        }
+        long expected = checked.getChecksum().getValue();
+        if (data.readLong() != expected) throw new IOException("Delta checksum mismatch");
+        if (added != Math.max(0, newCount - userCount)) throw new IOException("Delta doesn't match this network");
+
+        followersValid = false;
+        coresValid = false;
+        dropGraph();
+        // Takes the users that leave their slots out of the hash index, then puts the records in
+        for (int k = 0; k < count; k++) {
+            int i = slots[k];
+            if (i < userCount && users[i] != null) {
+                unindexUser(i);
+                users[i] = null;
+            }
+        }
+        for (int i = newCount; i < userCount; i++) {
+            if (users[i] != null) unindexUser(i);
+            users[i] = null;
+        }
+        for (int k = 0; k < count; k++) {
+            users[slots[k]] = records[k];
+            indexUser(slots[k]);
+        }
+        userCount = newCount;
+    }
+
+    // Remembers that users[i] changed since the last checkpoint
+    private void markChanged(int i) {
+        if (changedPos[i] < 0) {
+            changedPos[i] = changedCount;
+            changed[changedCount++] = i;
+        }
+    }
+
+    // Forgets that users[i] changed (the last entry of the changed array fills its place)
+    private void unmarkChanged(int i) {
+        int k = changedPos[i];
+        if (k < 0) return;
+        int moved = changed[--changedCount];
+        changed[k] = moved;
+        changedPos[moved] = k;
+        changedPos[i] = -1;
+    }
+
+    // Starts a new checkpoint: forgets which users changed
+    private void clearChanged() {
+        for (int k = 0; k < changedCount; k++) {
+            changedPos[changed[k]] = -1;
+        }
+        changedCount = 0;
+    }
+
+    // Writes a name as its length (varint) and its UTF-8 bytes. Also used by the NetworkNode protocol.
+    static void writeName(DataOutputStream data, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_NAME_BYTES) throw new IOException("Name is too long: " + bytes.length + " bytes");
+        Varint.write(data, bytes.length);
+        data.write(bytes);
+    }
+
+    // Reads a name that was written by writeName
+    static String readName(DataInputStream data) throws IOException {
+        int length = Varint.read(data);
+        if (length < 0 || length > MAX_NAME_BYTES) throw new IOException("Corrupted name length " + length);
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Numbers the distinct NameDictionary ids of a snapshot or a delta, in the order they are added.
+    // An open-addressing map of ints, so adding a name that is already numbered allocates nothing.
+    private static class NameTable {
+        private int[] keys = new int[64];    // id + 1, or 0 for an empty slot
+        private int[] numbers = new int[64]; // the number of the id in the same slot
+        private int shift = 32 - 6;          // 32 - log2(keys.length)
+        private int[] ids = new int[32];     // the ids, by number
+        private int size;
+
+        // Gives the given id the next number, unless it has one
+        void add(int id) {
+            int slot = find(id);
+            if (keys[slot] != 0) return;
+            keys[slot] = id + 1;
+            numbers[slot] = size;
+            if (size == ids.length) ids = Arrays.copyOf(ids, 2 * size);
+            ids[size++] = id;
+            if (2 * size > keys.length) grow();
+        }
+
+        // Returns the number of an id that was added
+        int get(int id) {
+            return numbers[find(id)];
+        }
+
+        // Writes the count and then the names, in the order of their numbers
+        void write(DataOutputStream data) throws IOException {
+            Varint.write(data, size);
+            for (int k = 0; k < size; k++) {
+                NameDictionary.write(data, ids[k]);
+            }
+        }
+
+        private int find(int id) {
+            int mask = keys.length - 1;
+            int slot = (id * 0x9E3779B9) >>> shift;
+            while (keys[slot] != 0 && keys[slot] != id + 1) slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void grow() {
+            keys = new int[2 * keys.length];
+            numbers = new int[keys.length];
+            shift--;
+            for (int k = 0; k < size; k++) {
+                int slot = find(ids[k]);
+                keys[slot] = ids[k] + 1;
+                numbers[slot] = k;
+            }
+        }
+    }
+
+    // The names of a snapshot or a delta, read in order. Every name is interned, and its case-insensitive
+    // hash computed, only once: a follow costs no more than its number, however many users follow the name.
+    private static class ReadNames {
+        final String[] userNames; // the first names, which are the names of the users of a snapshot
+        private final int count;
+        private int[] ids;        // the NameDictionary id of every name
+        private int[] hashes;     // the NameKey hash of every name
+
+        ReadNames(DataInputStream data, int count, int userCount) throws IOException {
+            this.count = count;
+            userNames = new String[userCount];
+            // The arrays grow as the names are read, so a wrong count runs into the end of the data first
+            ids = new int[Math.min(count, 1024)];
+            hashes = new int[ids.length];
+            byte[] buffer = new byte[64];
+            for (int i = 0; i < count; i++) {
+                int length = Varint.read(data);
+                if (length < 0 || length > MAX_NAME_BYTES) throw new IOException("Corrupted name length " + length);
+                if (i == ids.length) {
+                    ids = Arrays.copyOf(ids, (int) Math.min(count, 2L * i));
+                    hashes = Arrays.copyOf(hashes, ids.length);
+                }
+                if (length > buffer.length) buffer = new byte[Math.max(length, 2 * buffer.length)];
+                data.readFully(buffer, 0, length);
+                String name = new String(buffer, 0, length, StandardCharsets.UTF_8);
+                if (i < userCount) userNames[i] = name;
+                ids[i] = NameDictionary.intern(name);
+                hashes[i] = NameKey.hash(name);
+            }
+        }
+
+        // Returns the name with the given number
+        String name(int k) throws IOException {
+            check(k);
+            return NameDictionary.name(ids[k]);
+        }
+
+        // Appends the name with the given number to the follows list of the given user
+        void appendTo(User user, int k) throws IOException {
+            check(k);
+            user.appendFolloweeId(ids[k], hashes[k]);
+        }
+
+        private void check(int k) throws IOException {
+            if (k < 0 || k >= count) throw new IOException("Corrupted data: unknown name id " + k);
         }
-        return counter;
     }
 
     // Returns a textual description of all the users in this network, and who they follow.
@@ -0,0 +1,412 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** A frozen snapshot of the follow graph of a Network, for graph analytics.
+ *  Users are numbered 0..getUserCount()-1 (in the order of the network), and the graph is kept in
+ *  compressed sparse row (CSR) form: the users that u follows are out[outStart[u]..outStart[u+1]),
+ *  and the users that follow u are in[inStart[u]..inStart[u+1]), both in increasing order.
+ *  Follows of names that are not users of the network are left out.
+ *
+ *  A snapshot never changes, so any number of threads can read it without locks. */
+public class NetworkGraph {
+
+    final int n;            // number of users
+    final String[] names;   // names[u] is the name of user u
+    final int[] outStart;   // n + 1 offsets into out
+    final int[] out;        // the users that every user follows
+    final int[] inStart;    // n + 1 offsets into in
+    final int[] in;         // the followers of every user
+    private final int[] index; // hash index of the names (see NameKey): u + 1, or 0 for an empty slot
+
+    // The undirected graph (u and v are neighbors if either follows the other), built on first use
+    private int[] neighborStart;
+    private int[] neighbors;
+
+    // The working memory of distance and shortestPath (24 bytes per user), kept for the next query on
+    // this graph while no query uses it, and freed with the graph. Concurrent queries make their own.
+    private final AtomicReference<Search> spareSearch = new AtomicReference<Search>();
+
+    private NetworkGraph(String[] names, int[] outStart, int[] out) {
+        this.n = names.length;
+        this.names = names;
+        this.outStart = outStart;
+        this.out = out;
+
+        // The followers, by a counting sort of the edges on their targets. Sources come in increasing
+        // order, so every followers list ends up sorted.
+        inStart = new int[n + 1];
+        for (int e = 0; e < out.length; e++) inStart[out[e] + 1]++;
+        for (int u = 0; u < n; u++) inStart[u + 1] += inStart[u];
+        in = new int[out.length];
+        int[] next = Arrays.copyOf(inStart, n);
+        for (int u = 0; u < n; u++) {
+            for (int e = outStart[u]; e < outStart[u + 1]; e++) {
+                in[next[out[e]]++] = u;
+            }
+        }
+
+        index = new int[Math.max(4, Integer.highestOneBit(Math.max(1, n)) * 4)];
+        int mask = index.length - 1;
+        for (int u = 0; u < n; u++) {
+            int slot = NameKey.hash(names[u]) & mask;
+            while (index[slot] != 0) slot = (slot + 1) & mask;
+            index[slot] = u + 1;
+        }
+    }
+
+    /** Takes a snapshot of the follow graph of the given network. */
+    public static NetworkGraph of(Network network) {
+        int n = network.getUserCount();
+        String[] names = new String[n];
+        int[] outStart = new int[n + 1];
+        int[] out = new int[16];
+        int edgeCount = 0;
+        // Remembers the users of recently resolved followee names, so a popular name is looked up in the
+        // network's index about once: a direct-mapped cache of about two slots per user, where
+        // cachedId[s] is a NameDictionary id (or -1) and cachedUser[s] its user (or -1 for a non-user)
+        int bits = Math.max(4, 33 - Integer.numberOfLeadingZeros(Math.max(1, n)));
+        int[] cachedId = new int[1 << bits];
+        int[] cachedUser = new int[1 << bits];
+        Arrays.fill(cachedId, -1);
+        for (int u = 0; u < n; u++) {
+            User user = network.userAt(u);
+            names[u] = user.getName();
+            if (edgeCount + user.getfCount() > out.length) out = Arrays.copyOf(out, Math.max(2 * out.length, edgeCount + user.getfCount()));
+            for (int k = 0; k < user.getfCount(); k++) {
+                int id = user.getFolloweeId(k);
+                int slot = (id * 0x9E3779B9) >>> (32 - bits);
+                if (cachedId[slot] != id) {
+                    cachedId[slot] = id;
+                    cachedUser[slot] = network.indexOfId(id);
+                }
+                int v = cachedUser[slot];
+                if (v >= 0) out[edgeCount++] = v;
+            }
+            Arrays.sort(out, outStart[u], edgeCount);
+            outStart[u + 1] = edgeCount;
+        }
+        return new NetworkGraph(names, outStart, Arrays.copyOf(out, edgeCount));
+    }
+
+    /** Returns the number of users in this graph. */
+    public int getUserCount() {
+        return n;
+    }
+
+    /** Returns the number of follows (directed edges) in this graph. */
+    public int getEdgeCount() {
+        return out.length;
+    }
+
+    /** Returns the number of the user with the given name (ignoring case), or -1 if there is no such user. */
+    public int indexOf(String name) {
+        if (name == null) return -1;
+        int hash = NameKey.hash(name);
+        int mask = index.length - 1;
+        for (int slot = hash & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            if (NameKey.equals(names[index[slot] - 1], name)) return index[slot] - 1;
+        }
+        return -1;
+    }
+
+    /** Returns the name of user u. */
+    public String name(int u) {
+        return names[u];
+    }
+
+    /** Returns the number of users that user u follows. */
+    public int outDegree(int u) {
+        return outStart[u + 1] - outStart[u];
+    }
+
+    /** Returns the number of users that follow user u. */
+    public int inDegree(int u) {
+        return inStart[u + 1] - inStart[u];
+    }
+
+    /** Returns true if user u follows user v. */
+    public boolean follows(int u, int v) {
+        return SortedInts.contains(out, outStart[u], outStart[u + 1], v);
+    }
+
+    /** Returns the number of users that both u and v follow (like User.countMutual). */
+    public int countMutual(int u, int v) {
+        return SortedInts.intersectionSize(out, outStart[u], outStart[u + 1], out, outStart[v], outStart[v + 1]);
+    }
+
+    /** Returns the length of the shortest chain of follows from user a to user b (0 if a == b),
+     *  or -1 if b can't be reached from a. */
+    public int distance(int a, int b) {
+        return distance(a, b, null);
+    }
+
+    /** Like distance(a, b), in this graph with the given changes applied (null for none). */
+    int distance(int a, int b, Changes changes) {
+        if (a == b) return 0;
+        Search search = takeSearch();
+        try {
+            return search.run(this, changes, a, b);
+        } finally {
+            releaseSearch(search);
+        }
+    }
+
+    /** Returns the users on a shortest chain of follows from user a to user b, starting with a and
+     *  ending with b, or null if b can't be reached from a. */
+    public int[] shortestPath(int a, int b) {
+        return shortestPath(a, b, null);
+    }
+
+    /** Like shortestPath(a, b), in this graph with the given changes applied (null for none). */
+    int[] shortestPath(int a, int b, Changes changes) {
+        if (a == b) return new int[] { a };
+        Search search = takeSearch();
+        try {
+            int length = search.run(this, changes, a, b);
+            return (length < 0) ? null : search.path(length);
+        } finally {
+            releaseSearch(search);
+        }
+    }
+
+    // Takes the spare working memory of this graph, or makes new working memory if a query uses it
+    private Search takeSearch() {
+        Search search = spareSearch.getAndSet(null);
+        return (search != null) ? search : new Search(n);
+    }
+
+    // Clears the working memory after a query, and keeps it as the spare
+    private void releaseSearch(Search search) {
+        search.clear();
+        spareSearch.set(search);
+    }
+
+    /** Follows that were added to or removed from a network after its graph was built, so a query can
+     *  see them without rebuilding the whole graph. Only the lists of the users whose follows or
+     *  followers changed are kept (as sorted copies); the graph itself is not changed, so the threads
+     *  that read it are not affected. Changes can't add or remove users, or move them. */
+    static class Changes {
+        private final NetworkGraph graph;
+        private final HashMap<Integer, int[]> out = new HashMap<Integer, int[]>(); // the new follows lists
+        private final HashMap<Integer, int[]> in = new HashMap<Integer, int[]>();  // the new followers lists
+        private int count;  // follows added or removed so far
+
+        Changes(NetworkGraph graph) {
+            this.graph = graph;
+        }
+
+        /** Returns the graph that these changes apply to. */
+        NetworkGraph getGraph() {
+            return graph;
+        }
+
+        /** Returns the number of follows that were added or removed. */
+        int size() {
+            return count;
+        }
+
+        /** Records that user u started following user v. */
+        void add(int u, int v) {
+            out.put(u, with(outOf(u), v));
+            in.put(v, with(inOf(v), u));
+            count++;
+        }
+
+        /** Records that user u stopped following user v. */
+        void remove(int u, int v) {
+            out.put(u, without(outOf(u), v));
+            in.put(v, without(inOf(v), u));
+            count++;
+        }
+
+        // Returns a copy of the sorted list with the value added (or the list, if it has the value)
+        private static int[] with(int[] list, int value) {
+            int k = Arrays.binarySearch(list, value);
+            if (k >= 0) return list;
+            k = -k - 1;
+            int[] result = new int[list.length + 1];
+            System.arraycopy(list, 0, result, 0, k);
+            result[k] = value;
+            System.arraycopy(list, k, result, k + 1, list.length - k);
+            return result;
+        }
+
+        // Returns a copy of the sorted list without the value (or the list, if it doesn't have the value)
+        private static int[] without(int[] list, int value) {
+            int k = Arrays.binarySearch(list, value);
+            if (k < 0) return list;
+            int[] result = new int[list.length - 1];
+            System.arraycopy(list, 0, result, 0, k);
+            System.arraycopy(list, k + 1, result, k, list.length - k - 1);
+            return result;
+        }
+
+        // Returns the changed follows list of u, or a copy of the one in the graph
+        private int[] outOf(int u) {
+            int[] list = out.get(u);
+            return (list != null) ? list : Arrays.copyOfRange(graph.out, graph.outStart[u], graph.outStart[u + 1]);
+        }
+
+        private int[] inOf(int v) {
+            int[] list = in.get(v);
+            return (list != null) ? list : Arrays.copyOfRange(graph.in, graph.inStart[v], graph.inStart[v + 1]);
+        }
+    }
+
+    // Bidirectional BFS: one search goes forward from a along the follows, the other goes backward
+    // from b along the followers, and every step expands the smaller of the two frontiers. On a
+    // small-world graph, the two searches meet after visiting a tiny part of the graph. The visited
+    // sets are bitsets, and only the bits that a query set are cleared after it, so a query costs
+    // time in proportion to what it visits, not to the size of the graph.
+    private static class Search {
+        final long[] forwardSeen;
+        final long[] backwardSeen;
+        final int[] forwardQueue;  // every user that the forward search visited, level by level
+        final int[] backwardQueue;
+        final int[] forwardParent;  // the user from which the forward search reached every user
+        final int[] backwardParent; // the next user toward b, for every user that the backward search visited
+        final int[] forwardDepth;
+        final int[] backwardDepth;
+        int forwardCount;
+        int backwardCount;
+        int meeting;               // a user on a shortest path, found by run
+
+        Search(int n) {
+            forwardSeen = new long[(n + 63) / 64];
+            backwardSeen = new long[(n + 63) / 64];
+            forwardQueue = new int[n];
+            backwardQueue = new int[n];
+            forwardParent = new int[n];
+            backwardParent = new int[n];
+            forwardDepth = new int[n];
+            backwardDepth = new int[n];
+        }
+
+        // Returns the distance from a to b (a != b) in the graph with the given changes (or null), or -1
+        int run(NetworkGraph graph, Changes changes, int a, int b) {
+            visit(forwardSeen, forwardQueue, forwardCount++, forwardParent, forwardDepth, a, -1, 0);
+            visit(backwardSeen, backwardQueue, backwardCount++, backwardParent, backwardDepth, b, -1, 0);
+            int forwardLevel = 0, backwardLevel = 0;     // start of the current frontier in each queue
+            while (forwardLevel < forwardCount && backwardLevel < backwardCount) {
+                int best = Integer.MAX_VALUE;
+                if (forwardCount - forwardLevel <= backwardCount - backwardLevel) {
+                    int end = forwardCount;
+                    for (int k = forwardLevel; k < end; k++) {
+                        int u = forwardQueue[k];
+                        int[] edges = graph.out;
+                        int from = graph.outStart[u], to = graph.outStart[u + 1];
+                        int[] changed = (changes == null) ? null : changes.out.get(u);
+                        if (changed != null) {
+                            edges = changed;
+                            from = 0;
+                            to = changed.length;
+                        }
+                        for (int e = from; e < to; e++) {
+                            int v = edges[e];
+                            if (isSet(forwardSeen, v)) continue;
+                            visit(forwardSeen, forwardQueue, forwardCount++, forwardParent, forwardDepth, v, u, forwardDepth[u] + 1);
+                            if (isSet(backwardSeen, v) && forwardDepth[v] + backwardDepth[v] < best) {
+                                best = forwardDepth[v] + backwardDepth[v];
+                                meeting = v;
+                            }
+                        }
+                    }
+                    forwardLevel = end;
+                } else {
+                    int end = backwardCount;
+                    for (int k = backwardLevel; k < end; k++) {
+                        int u = backwardQueue[k];
+                        int[] edges = graph.in;
+                        int from = graph.inStart[u], to = graph.inStart[u + 1];
+                        int[] changed = (changes == null) ? null : changes.in.get(u);
+                        if (changed != null) {
+                            edges = changed;
+                            from = 0;
+                            to = changed.length;
+                        }
+                        for (int e = from; e < to; e++) {
+                            int v = edges[e];
+                            if (isSet(backwardSeen, v)) continue;
+                            visit(backwardSeen, backwardQueue, backwardCount++, backwardParent, backwardDepth, v, u, backwardDepth[u] + 1);
+                            if (isSet(forwardSeen, v) && forwardDepth[v] + backwardDepth[v] < best) {
+                                best = forwardDepth[v] + backwardDepth[v];
+                                meeting = v;
+                            }
+                        }
+                    }
+                    backwardLevel = end;
+                }
+                // the first level on which the searches meet has a shortest path through it
+                if (best != Integer.MAX_VALUE) return best;
+            }
+            return -1;
+        }
+
+        // Returns the path through the meeting user that run found
+        int[] path(int length) {
+            int[] path = new int[length + 1];
+            int k = forwardDepth[meeting];
+            for (int u = meeting; u != -1; u = forwardParent[u]) path[k--] = u;
+            k = forwardDepth[meeting];
+            for (int u = backwardParent[meeting]; u != -1; u = backwardParent[u]) path[++k] = u;
+            return path;
+        }
+
+        private static void visit(long[] seen, int[] queue, int position, int[] parent, int[] depth, int u, int from, int d) {
+            seen[u >>> 6] |= 1L << u;
+            queue[position] = u;
+            parent[u] = from;
+            depth[u] = d;
+        }
+
+        private static boolean isSet(long[] bits, int u) {
+            return (bits[u >>> 6] & (1L << u)) != 0;
+        }
+
+        // Clears only the bits that the last query set
+        void clear() {
+            for (int k = 0; k < forwardCount; k++) forwardSeen[forwardQueue[k] >>> 6] = 0;
+            for (int k = 0; k < backwardCount; k++) backwardSeen[backwardQueue[k] >>> 6] = 0;
+            forwardCount = 0;
+            backwardCount = 0;
+        }
+    }
+
+    /** Returns the offsets of the undirected neighbor lists (see neighbors). */
+    int[] neighborStart() {
+        buildNeighbors();
+        return neighborStart;
+    }
+
+    /** Returns the undirected neighbor lists: the neighbors of u (the users that u follows or that
+     *  follow u, each once) are neighbors()[neighborStart()[u]..neighborStart()[u+1]), in increasing order. */
+    int[] neighbors() {
+        buildNeighbors();
+        return neighbors;
+    }
+
+    // Merges the follows and followers lists of every user
+    private synchronized void buildNeighbors() {
+        if (neighbors != null) return;
+        int[] start = new int[n + 1];
+        int[] merged = new int[out.length + in.length];
+        int count = 0;
+        for (int u = 0; u < n; u++) {
+            int i = outStart[u], j = inStart[u];
+            while (i < outStart[u + 1] || j < inStart[u + 1]) {
+                int v;
+                if (j == inStart[u + 1] || (i < outStart[u + 1] && out[i] < in[j])) v = out[i++];
+                else if (i == outStart[u + 1] || in[j] < out[i]) v = in[j++];
+                else {
+                    v = out[i++];
+                    j++;
+                }
+                merged[count++] = v;
+            }
+            start[u + 1] = count;
+        }
+        neighbors = Arrays.copyOf(merged, count);
+        neighborStart = start;
+    }
+}
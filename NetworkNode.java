@@ -0,0 +1,272 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** A process (or a thread) that owns one partition of a partitioned network, and serves it over
+ *  a socket to PartitionedNetwork clients. The partition is an ordinary Network, and the requests
+ *  of all the connections are applied to it one at a time: every connection reads its whole request
+ *  before it locks the partition, and sends the answer after unlocking it.
+ *
+ *  The protocol is binary: a request is an op code (1 byte) and its arguments, and the node answers
+ *  every request before reading the next one. An answer starts with a status byte: OK and the answer
+ *  of the op, or FAILED and a message if the node couldn't apply the request (the connection stays
+ *  usable). Names are written as varint length + UTF-8 bytes, and counts as varints. Queries that involve many users (for example FOLLOWS_BATCH) carry all of
+ *  them in one request, so a client needs one round trip per node, and not one per user.
+ *
+ *  The protocol has no authentication, so a node listens on the loopback address unless it is told
+ *  otherwise.
+ *
+ *  Usage: java NetworkNode port maxUserCount [bindAddress] (port 0 picks a free port) */
+public class NetworkNode implements AutoCloseable {
+
+    // Op codes. The answer to each is described next to it.
+    static final int ADD_USER = 1;        // name -> boolean
+    static final int HAS_USER = 2;        // name -> boolean
+    static final int GET_USERS = 3;       // count, names -> for each: boolean found, [follows count, names]
+    static final int ADD_FOLLOWEE = 4;    // name1, name2 (the caller checked that name2 exists) -> boolean
+    static final int REMOVE_FOLLOWEE = 5; // name1, name2 -> boolean
+    static final int FOLLOWS_BATCH = 6;   // count, (name1, name2) pairs -> a boolean for every pair
+    static final int MOST_MUTUAL = 7;     // name, count (at most User.maxfCount), followees -> boolean found, [name, mutual count]
+    static final int COUNT_FOLLOWEES = 8; // -> count, (NameKey.key of the name, count) pairs
+    static final int LIST_USERS = 9;      // -> count, names
+    static final int USER_COUNT = 10;     // -> count
+
+    // The status byte that starts every answer
+    static final int OK = 0;
+    static final int FAILED = 1;          // followed by a message (written as a name)
+
+    private final Network network;
+    private final ServerSocket server;
+    private final Thread acceptor;
+
+    /** Starts a node that serves a new, empty partition on the given port of the loopback address
+     *  (0 picks a free port, see getPort). */
+    public NetworkNode(int port, int maxUserCount) throws IOException {
+        this(port, maxUserCount, InetAddress.getLoopbackAddress());
+    }
+
+    /** Starts a node that serves a new, empty partition on the given port and address. */
+    public NetworkNode(int port, int maxUserCount, InetAddress address) throws IOException {
+        network = new Network(maxUserCount);
+        server = new ServerSocket(port, 50, address);
+        acceptor = new Thread(this::acceptLoop, "network-node-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** Returns the port this node listens on. */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /** Stops accepting connections. */
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Thread handler = new Thread(() -> serve(socket), "network-node-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (!server.isClosed()) System.out.println("\n...Can't accept a connection: " + e.getMessage() + "...");
+            }
+        }
+    }
+
+    // Answers the requests of one connection until the client closes it. A request is read completely
+    // before the partition is locked, and the answer is written after it is unlocked, so a slow client
+    // never holds up the other connections.
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream reply = new DataOutputStream(buffer);
+            while (true) {
+                int op = in.read();
+                if (op < 0) return;
+                String[] names = readArguments(op, in);
+                buffer.reset();
+                reply.writeByte(OK);
+                try {
+                    synchronized (network) {
+                        handle(op, names, reply);
+                    }
+                } catch (RuntimeException e) {
+                    // The request was read completely, so the connection can go on to the next one
+                    buffer.reset();
+                    reply.writeByte(FAILED);
+                    Network.writeName(reply, String.valueOf(e.getMessage()));
+                }
+                buffer.writeTo(out);
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // the client went away in the middle of a request
+        } catch (IOException e) {
+            System.out.println("\n...Connection failed: " + e.getMessage() + "...");
+        }
+    }
+
+    // Reads the arguments of a request: all of its names, in order. For MOST_MUTUAL, the user's name
+    // comes first and its followees after it; for FOLLOWS_BATCH, the pairs are flattened.
+    private static String[] readArguments(int op, DataInputStream in) throws IOException {
+        switch (op) {
+            case ADD_USER:
+            case HAS_USER:
+                return new String[] {Network.readName(in)};
+            case ADD_FOLLOWEE:
+            case REMOVE_FOLLOWEE:
+                return new String[] {Network.readName(in), Network.readName(in)};
+            case GET_USERS:
+                return readNames(in, Varint.read(in), 0, null);
+            case FOLLOWS_BATCH:
+                return readNames(in, 2L * Varint.read(in), 0, null);
+            case MOST_MUTUAL: {
+                String name = Network.readName(in);
+                return readNames(in, Varint.read(in), 1, name);
+            }
+            case COUNT_FOLLOWEES:
+            case LIST_USERS:
+            case USER_COUNT:
+                return new String[0];
+            default:
+                throw new IOException("Unknown op code " + op);
+        }
+    }
+
+    // Reads count names after the given number of leading names (first, if there is one). The array
+    // grows as the names arrive, so a wrong count runs into the end of the stream first.
+    private static String[] readNames(DataInputStream in, long count, int leading, String first) throws IOException {
+        if (count < 0 || count > Integer.MAX_VALUE - leading) throw new IOException("Bad name count " + count);
+        int total = (int) count + leading;
+        String[] names = new String[Math.min(total, 1024)];
+        if (leading > 0) names[0] = first;
+        for (int i = leading; i < total; i++) {
+            if (i == names.length) names = Arrays.copyOf(names, (int) Math.min(total, 2L * i));
+            names[i] = Network.readName(in);
+        }
+        return names;
+    }
+
+    // Applies a request whose arguments were read by readArguments, and writes its answer
+    private void handle(int op, String[] names, DataOutputStream out) throws IOException {
+        switch (op) {
+            case ADD_USER:
+                out.writeBoolean(network.addUser(names[0]));
+                break;
+            case HAS_USER:
+                out.writeBoolean(network.getUser(names[0]) != null);
+                break;
+            case GET_USERS:
+                for (String name : names) {
+                    User user = network.getUser(name);
+                    out.writeBoolean(user != null);
+                    if (user != null) writeFollows(out, user);
+                }
+                break;
+            case ADD_FOLLOWEE:
+                out.writeBoolean(network.addExternalFollowee(names[0], names[1]));
+                break;
+            case REMOVE_FOLLOWEE:
+                out.writeBoolean(network.removeFollowee(names[0], names[1]));
+                break;
+            case FOLLOWS_BATCH:
+                for (int i = 0; i < names.length; i += 2) {
+                    User user = network.getUser(names[i]);
+                    out.writeBoolean(user != null && user.follows(names[i + 1]));
+                }
+                break;
+            case MOST_MUTUAL: {
+                String name = names[0];
+                if (names.length - 1 > User.maxfCount) {
+                    throw new IllegalArgumentException("A user can't follow " + (names.length - 1) + " users");
+                }
+                User probe = new User(name);
+                for (int i = 1; i < names.length; i++) {
+                    probe.appendFollowee(names[i]);
+                }
+                User best = null;
+                int max = 0;
+                for (int i = 0; i < network.getUserCount(); i++) {
+                    User other = network.userAt(i);
+                    if (other.getName().equalsIgnoreCase(name)) continue;
+                    int mutual = other.countMutual(probe);
+                    if (mutual > max) {
+                        best = other;
+                        max = mutual;
+                    }
+                }
+                out.writeBoolean(best != null);
+                if (best != null) {
+                    Network.writeName(out, best.getName());
+                    Varint.write(out, max);
+                }
+                break;
+            }
+            case COUNT_FOLLOWEES: {
+                HashMap<String, Integer> counts = new HashMap<String, Integer>();
+                for (int i = 0; i < network.getUserCount(); i++) {
+                    User user = network.userAt(i);
+                    String[] follows = user.getfFollows();
+                    for (int j = 0; j < user.getfCount(); j++) {
+                        counts.merge(NameKey.key(follows[j]), 1, Integer::sum);
+                    }
+                }
+                Varint.write(out, counts.size());
+                for (Map.Entry<String, Integer> e : counts.entrySet()) {
+                    Network.writeName(out, e.getKey());
+                    Varint.write(out, e.getValue());
+                }
+                break;
+            }
+            case LIST_USERS:
+                Varint.write(out, network.getUserCount());
+                for (int i = 0; i < network.getUserCount(); i++) {
+                    Network.writeName(out, network.userAt(i).getName());
+                }
+                break;
+            case USER_COUNT:
+                Varint.write(out, network.getUserCount());
+                break;
+            default:
+                throw new IOException("Unknown op code " + op);
+        }
+    }
+
+    private static void writeFollows(DataOutputStream out, User user) throws IOException {
+        Network.writeName(out, user.getName());
+        String[] follows = user.getfFollows();
+        Varint.write(out, user.getfCount());
+        for (int j = 0; j < user.getfCount(); j++) {
+            Network.writeName(out, follows[j]);
+        }
+    }
+
+    /** Runs a node until the process is killed. */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: java NetworkNode port maxUserCount [bindAddress]");
+            return;
+        }
+        InetAddress address = (args.length > 2) ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+        NetworkNode node = new NetworkNode(Integer.parseInt(args[0]), Integer.parseInt(args[1]), address);
+        System.out.println("Serving a network partition on " + address.getHostAddress() + ", port " + node.getPort());
+        node.acceptor.join();
+    }
+}
@@ -1,5 +1,19 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 public class NetworkTest {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
         System.out.println("Testing the Network class...\n");
 
         System.out.println("...To get started, creating a dummy network for testing the toString and getUser methods...\n");
@@ -46,6 +60,249 @@ public class NetworkTest {
         System.out.println("\n...Finding the most popular user...");
         System.out.println("The most popular user is: " + net.mostPopularUser());
 
+        System.out.println("\n...Saving the network to a binary snapshot and loading it back...");
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        net.save(snapshot);
+        Network loaded = Network.load(new ByteArrayInputStream(snapshot.toByteArray()));
+        System.out.println("Snapshot size in bytes: " + snapshot.size());
+        System.out.println("The loaded network is identical: " + loaded.toString().equals(net.toString()));
+
+        System.out.println("\n...Removing Zohar, who is followed by Alex, Orly and Idan...");
+        System.out.println("Removed: " + loaded.removeUser("zohar"));
+        System.out.println("Zohar is still a user: " + (loaded.getUser("Zohar") != null));
+        System.out.println("Somebody still follows Zohar: " + (loaded.getUser("Alex").follows("Zohar")
+                || loaded.getUser("Orly").follows("Zohar") || loaded.getUser("Idan").follows("Zohar")));
+        System.out.println("Removing Zohar again: " + loaded.removeUser("Zohar"));
+        System.out.println("Users left: " + loaded.getUserCount() + ", Maya is still found: " + (loaded.getUser("Maya") != null));
+        System.out.println("The most popular user is now: " + loaded.mostPopularUser() + ", with "
+                + loaded.getFollowerCount(loaded.mostPopularUser()) + " followers");
+        System.out.println(loaded);
+
+        System.out.println("\n...Making Keren and Alex friends, and listing friends...");
+        loaded.addFollowee("Keren", "Alex");
+        System.out.println("Alex and Keren are friends: " + loaded.isFriendOf("Alex", "Keren"));
+        System.out.println("The friends of Alex: " + Arrays.toString(loaded.friendsOf("Alex")));
+        System.out.println("Pairs of friends: " + loaded.getFriendshipCount()
+                + ", users by number of friends: " + Arrays.toString(loaded.getFriendCountHistogram()));
+
+        System.out.println("\n...Counting triangles (Alex, Keren and Neta, after Keren follows Neta)...");
+        loaded.addFollowee("Keren", "Neta");
+        TriangleCount triangles = TriangleCount.of(NetworkGraph.of(loaded));
+        System.out.println("Triangles: " + triangles.getTriangleCount()
+                + ", global clustering coefficient: " + triangles.globalClustering());
+
+        System.out.println("\n...Finding the shortest chain of follows from Idan to Maya, after Neta follows Orly...");
+        loaded.addFollowee("Neta", "Orly");
+        System.out.println("Distance: " + loaded.distance("Idan", "Maya") + ", path: " + Arrays.toString(loaded.shortestPath("Idan", "Maya")));
+        System.out.println("Distance from Maya to Idan: " + loaded.distance("Maya", "Idan"));
+
+        System.out.println("\n...Ranking the users by PageRank...");
+        System.out.println("The top 3 users: " + Arrays.toString(loaded.topByPageRank(3)));
+
+        System.out.println("\n...Finding the dense center of the network (k-cores)...");
+        System.out.println("Largest core number: " + loaded.getMaxCore() + ", its users: "
+                + Arrays.toString(loaded.usersInCore(loaded.getMaxCore())));
+        loaded.removeFollowee("Keren", "Neta");
+        System.out.println("After Keren unfollows Neta, the core number of Keren is " + loaded.coreNumber("Keren"));
+
+        System.out.println("\n...Finding communities, and recommending to Idan only from its community...");
+        Communities communities = loaded.communities();
+        System.out.print("Communities: " + communities.getCommunityCount() + ", the community of Idan:");
+        for (int u : communities.members(loaded.communityOf("Idan"))) System.out.print(" " + communities.getGraph().name(u));
+        System.out.println();
+        System.out.println("Idan: we recommend to follow " + loaded.recommendWhoToFollow("Idan", true)
+                + " (from the whole network: " + loaded.recommendWhoToFollow("Idan") + ")");
+
+        System.out.println("\n...Estimating distances with landmarks, rebuilt in the background...");
+        loaded.rebuildDistanceOracle(2).get();
+        System.out.println("Approximate distance from Idan to Maya: " + loaded.approximateDistance("Idan", "Maya")
+                + " (exact: " + loaded.distance("Idan", "Maya") + ")");
+        Future<DistanceOracle> lastBuild = loaded.rebuildDistanceOracle(3);
+        loaded.close();
+        System.out.println("A build that was requested before close still finishes: " + (lastBuild.get().getLandmarks().length == 3));
+
+        System.out.println("\n...Following through the User objects that getUser returns...");
+        loaded.getUser("Uri").addFollowee("Alex");
+        loaded.getUser("Maya").addFollowee("Alex");
+        System.out.println("Followers of Alex: " + loaded.getFollowerCount("Alex") + ", the most popular user is now: " + loaded.mostPopularUser());
+        System.out.println("Uri can follow a name that is not a user (should be false): " + loaded.getUser("Uri").addFollowee("Nobody"));
+
+        System.out.println("\n...Checkpointing a base and a delta, with a plain snapshot and a removal in between...");
+        Path dir = Files.createTempDirectory("network-checkpoints");
+        try (CheckpointStore store = new CheckpointStore(dir)) {
+            store.checkpoint(loaded);
+            loaded.addUser("Gil");
+            loaded.addFollowee("Gil", "Maya");
+            loaded.save(new ByteArrayOutputStream());
+            loaded.addFollowee("Orly", "Alex");
+            loaded.removeUser("Or");
+            store.checkpoint(loaded);
+            System.out.println("The base and the delta give the live network, in the same order: " + store.load(1000).toString().equals(loaded.toString()));
+            System.out.println("Deltas merged by the compactor: " + store.compact()
+                    + ", and the merged base gives the live network: " + store.load(1000).toString().equals(loaded.toString()));
+        }
+
+        System.out.println("\n...Logging mutations, and recovering after a crash that tore the last record...");
+        Path snapshotFile = dir.resolve("network.snap");
+        Path logFile = dir.resolve("network.log");
+        try (OutputStream out = Files.newOutputStream(snapshotFile)) {
+            loaded.save(out);
+        }
+        try (MutationLog log = new MutationLog(logFile)) {
+            loaded.setLog(log);
+            loaded.addUser("Boaz");
+            loaded.addFollowee("Boaz", "Gil");
+            loaded.removeFollowee("Alex", "Neta");
+            loaded.setLog(null);
+        }
+        long logSize = Files.size(logFile);
+        // the start of a record whose name length is not a valid length
+        Files.write(logFile, new byte[] {MutationLog.ADD_USER, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f}, StandardOpenOption.APPEND);
+        Network recovered = MutationLog.recover(snapshotFile, logFile, 1000);
+        System.out.println("The recovered network is identical: " + recovered.toString().equals(loaded.toString())
+                + ", the torn record was cut off: " + (Files.size(logFile) == logSize));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) Files.delete(file);
+        }
+        Files.delete(dir);
+
+        System.out.println("\n...Following Ghost before it is a user (like a user of another shard), then adding and removing it...");
+        Network early = new Network(10);
+        early.addUser("Alex");
+        early.addExternalFollowee("Alex", "Ghost");
+        early.getFollowerCount("Alex"); // builds the followers index before Ghost joins
+        early.addUser("Ghost");
+        System.out.println("Followers of Ghost (should be 1): " + early.getFollowerCount("Ghost")
+                + ", the most popular user: " + early.mostPopularUser());
+        early.removeUser("Ghost");
+        System.out.println("Alex still follows Ghost after it left: " + early.getUser("Alex").follows("Ghost"));
+
+        System.out.println("\n...Loading an edge list, and adding the same follows one by one...");
+        Path edges = Files.createTempFile("network-edges", ".txt");
+        Files.write(edges, Arrays.asList("# follower followee", "Alex Keren", "Alex Neta", "keren ALEX", "Uri",
+                "Orly Alex", "Alex keren", "Orly orly"));
+        EdgeListLoader loader = new EdgeListLoader(2);
+        Network fromFile = loader.load(edges, 100);
+        Files.delete(edges);
+        Network oneByOne = new Network(100);
+        oneByOne.addUser("Alex");
+        oneByOne.addUser("Keren");
+        oneByOne.addUser("Neta");
+        oneByOne.addUser("Uri");
+        oneByOne.addUser("Orly");
+        oneByOne.addFollowee("Alex", "Keren");
+        oneByOne.addFollowee("Alex", "Neta");
+        oneByOne.addFollowee("Keren", "Alex");
+        oneByOne.addFollowee("Orly", "Alex");
+        System.out.println("Follows loaded: " + loader.getEdgeCount() + " (should be 4)");
+        System.out.println("The loaded network is identical: " + fromFile.toString().equals(oneByOne.toString()));
+
+        System.out.println("\n...Splitting the first network into shards, and asking both the same questions...");
+        String[] names = {"Alex", "Orly", "Idan", "Keren", "Neta", "Zohar", "Or", "Uri", "Maya"};
+        try (ShardedNetwork sharded = new ShardedNetwork(4, 100)) {
+            for (String name : names) sharded.addUser(name);
+            for (String name : names) {
+                User user = net.getUser(name);
+                String[] follows = user.getfFollows();
+                for (int j = 0; j < user.getfCount(); j++) sharded.addFollowee(name, follows[j]);
+            }
+            boolean same = sharded.getUserCount() == net.getUserCount()
+                    && sharded.mostPopularUser().equals(net.mostPopularUser());
+            for (String name : names) {
+                same &= sharded.getUser(name).toString().equals(net.getUser(name).toString());
+                // Network.recommendWhoToFollow expects a user that follows somebody
+                if (net.getUser(name).getfCount() > 0) same &= sharded.recommendWhoToFollow(name).equals(net.recommendWhoToFollow(name));
+            }
+            System.out.println("The sharded network gives the same answers: " + same);
+        }
+
+        System.out.println("\n...Adding users and follows in batches, to a network of 5 users...");
+        Network batch = new Network(5);
+        System.out.println("Users added (should be {0, 1, 4, 5, 6}): "
+                + batch.addUsers(Arrays.asList("Alex", "Orly", "alex", null, "Idan", "Keren", "Neta", "Maya")));
+        System.out.println("Follows added (should be {0, 2, 5}): " + batch.addFollowees(
+                new String[] {"Alex", "Alex", "orly", "Alex", "Maya", "Idan", "Idan"},
+                new String[] {"Orly", "ORLY", "Alex", "Alex", "Alex", "Neta", "Gil"}));
+        System.out.println(batch);
+
+        System.out.println("\n...Putting Bloom filters in front of the names of 1000 users...");
+        Network filtered = new Network(1000);
+        NameFilter filter = new NameFilter(1000, 0.01);
+        String[] userNames = new String[1000];
+        for (int i = 0; i < 1000; i++) {
+            userNames[i] = "user" + i;
+            filter.add(userNames[i]);
+        }
+        filtered.addUsers(Arrays.asList(userNames));
+        filtered.setNameFilter(0.01);
+        boolean allFound = true;
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            allFound &= filter.mightContain("USER" + i) && filtered.getUser("User" + i) != null;
+        }
+        for (int i = 1000; i < 11000; i++) {
+            if (filter.mightContain("user" + i)) falsePositives++;
+            allFound &= filtered.getUser("user" + i) == null;
+        }
+        System.out.println("Every user is found, and no other name is (no false negatives): " + allFound);
+        System.out.println("False positives of the filter among 10000 other names: " + falsePositives + " (about 100 expected)");
+
+        System.out.println("\n...Putting Bloom filters in front of the follows lists, then following and unfollowing...");
+        filtered.setFollowsFilter(0.05);
+        String[] from = new String[2000];
+        String[] to = new String[2000];
+        for (int i = 0; i < 1000; i++) {
+            from[2 * i] = from[2 * i + 1] = userNames[i];
+            to[2 * i] = userNames[(i + 1) % 1000];
+            to[2 * i + 1] = userNames[(i + 2) % 1000];
+        }
+        filtered.addFollowees(from, to);
+        for (int i = 0; i < 10; i += 2) filtered.removeFollowee(userNames[i], userNames[i + 1]);
+        boolean followsRight = true;
+        for (int i = 0; i < 1000; i++) {
+            User user = filtered.getUser(userNames[i]);
+            for (int j = 0; j < 20; j++) {
+                boolean expected = (j == 1 && (i >= 10 || i % 2 == 1)) || j == 2;
+                followsRight &= user.follows(userNames[(i + j) % 1000].toUpperCase()) == expected;
+            }
+        }
+        System.out.println("Every follows check gives the same answer as without the filters: " + followsRight);
+
+        System.out.println("\n...Searching a random network of 2000 users in parallel, and one user at a time...");
+        Network random = new Network(2000);
+        Random generator = new Random(1);
+        String[] randomNames = new String[2000];
+        for (int i = 0; i < 2000; i++) randomNames[i] = "user" + i;
+        random.addUsers(Arrays.asList(randomNames));
+        String[] followers = new String[6000], followees = new String[6000];
+        for (int k = 0; k < 6000; k++) {
+            followers[k] = randomNames[generator.nextInt(2000)];
+            followees[k] = randomNames[generator.nextInt(2000)];
+        }
+        random.addFollowees(followers, followees);
+        NetworkGraph randomGraph = random.getGraph();
+        ParallelBfs forward = ParallelBfs.run(randomGraph, 0);
+        ParallelBfs backward = ParallelBfs.run(randomGraph, 0, true, ForkJoinPool.commonPool());
+        boolean sameDepths = true;
+        for (int u = 0; u < 2000; u++) {
+            sameDepths &= forward.depth(u) == randomGraph.distance(0, u) && backward.depth(u) == randomGraph.distance(u, 0);
+        }
+        System.out.println("Users reached from user0: " + forward.getReachedCount() + ", the parallel search finds the same distances: " + sameDepths);
+
+        System.out.println("\n...Finding the components of a small network: A, B, C follow each other in a cycle,");
+        System.out.println("C follows D, D and E follow each other, F follows G, and H follows nobody...");
+        Network small = new Network(10);
+        small.addUsers(Arrays.asList("A", "B", "C", "D", "E", "F", "G", "H"));
+        small.addFollowees(new String[] {"A", "B", "C", "C", "D", "E", "F"},
+                new String[] {"B", "C", "A", "D", "E", "D", "G"});
+        Components components = small.connectedComponents();
+        System.out.println("Connected components (should be 3): " + components.getComponentCount()
+                + ", the largest has (should be 5): " + components.largestComponentSize());
+        StrongComponents strong = small.stronglyConnectedComponents();
+        System.out.println("Strongly connected components (should be 5): " + strong.getComponentCount()
+                + ", edges between them (should be 2): " + strong.getDagEdgeCount()
+                + ", A and C in the same one: " + (strong.componentOf("A") == strong.componentOf("C"))
+                + ", C and D in the same one: " + (strong.componentOf("C") == strong.componentOf("D")));
         System.out.println("\nAll Network class tests completed.");
     }
 }
@@ -0,0 +1,201 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** The PageRank of every user of a NetworkGraph: a follow is a vote, and a vote from a user with a
+ *  high rank (who follows few users) is worth more. Unlike a raw follower count, it is hard to inflate
+ *  with many fake followers, because fake accounts have low ranks themselves.
+ *
+ *  Power iteration, pull-based: in every iteration, every user adds up the shares of its followers
+ *  (read through the followers lists of the graph), so every rank is written by one task only and no
+ *  atomics are needed. The ranks of the last iteration and of the next one are two arrays that swap
+ *  roles. The users are split between the tasks of a ForkJoinPool. The rank of users who follow nobody
+ *  is spread evenly over all users. The ranks add up to 1. */
+public class PageRank {
+
+    /** The maximal number of iterations, in case the tolerance is never reached. */
+    public static final int MAX_ITERATIONS = 200;
+
+    private static final int LEAF_SIZE = 8192; // users per task
+
+    private final NetworkGraph graph;
+    private final double[] ranks;
+    private final int iterations;
+
+    private PageRank(NetworkGraph graph, double damping, double tolerance, ForkJoinPool pool) {
+        if (damping < 0 || damping >= 1) throw new IllegalArgumentException("The damping factor must be in [0, 1)");
+        this.graph = graph;
+        int n = graph.n;
+        double[] rank = new double[n];
+        double[] next = new double[n];
+        double[] share = new double[n]; // rank / number of followees, for every user
+        Arrays.fill(rank, (n == 0) ? 0 : 1.0 / n);
+        int iteration = 0;
+        while (n > 0 && iteration < MAX_ITERATIONS) {
+            iteration++;
+            double dangling = pool.invoke(new ShareTask(rank, share, 0, n));
+            double base = (1 - damping) / n + damping * dangling / n;
+            double change = pool.invoke(new PullTask(rank, next, share, damping, base, 0, n));
+            double[] t = rank; rank = next; next = t;
+            if (change < tolerance) break;
+        }
+        ranks = rank;
+        iterations = iteration;
+    }
+
+    /** Computes the ranks of the given graph on the common ForkJoinPool. Iterates until the ranks
+     *  change by less than the tolerance in total (L1 distance), e.g. with damping 0.85 and tolerance 1e-6. */
+    public static PageRank of(NetworkGraph graph, double damping, double tolerance) {
+        return of(graph, damping, tolerance, ForkJoinPool.commonPool());
+    }
+
+    /** Computes the ranks of the given graph on the given ForkJoinPool. */
+    public static PageRank of(NetworkGraph graph, double damping, double tolerance, ForkJoinPool pool) {
+        return new PageRank(graph, damping, tolerance, pool);
+    }
+
+    /** Returns the graph that these ranks were computed for. */
+    public NetworkGraph getGraph() {
+        return graph;
+    }
+
+    /** Returns the number of iterations that were needed. */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /** Returns the rank of user u. */
+    public double rank(int u) {
+        return ranks[u];
+    }
+
+    /** Returns the rank of the user with the given name, or 0 if there is no such user. */
+    public double rank(String name) {
+        int u = graph.indexOf(name);
+        return (u < 0) ? 0 : ranks[u];
+    }
+
+    /** Returns the k users with the highest ranks (fewer if the graph is smaller), highest first.
+     *  Among equal ranks, smaller user numbers come first. Takes O(N log k). */
+    public int[] top(int k) {
+        k = Math.min(k, graph.n);
+        if (k <= 0) return new int[0];
+        // a min-heap of the best k users so far: heap[0] is the weakest of them
+        int[] heap = new int[k];
+        int size = 0;
+        for (int u = 0; u < graph.n; u++) {
+            if (size < k) {
+                heap[size] = u;
+                siftUp(heap, size++);
+            } else if (outranks(u, heap[0])) {
+                heap[0] = u;
+                siftDown(heap, 0, size);
+            }
+        }
+        int[] result = new int[k];
+        for (int i = k - 1; i >= 0; i--) { // pops the weakest first
+            result[i] = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, 0, size);
+        }
+        return result;
+    }
+
+    // True if u ranks above v
+    private boolean outranks(int u, int v) {
+        return ranks[u] > ranks[v] || (ranks[u] == ranks[v] && u < v);
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0 && outranks(heap[(i - 1) / 2], heap[i])) {
+            int parent = (i - 1) / 2;
+            int t = heap[i]; heap[i] = heap[parent]; heap[parent] = t;
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int i, int size) {
+        while (true) {
+            int weakest = i;
+            int left = 2 * i + 1, right = left + 1;
+            if (left < size && outranks(heap[weakest], heap[left])) weakest = left;
+            if (right < size && outranks(heap[weakest], heap[right])) weakest = right;
+            if (weakest == i) return;
+            int t = heap[i]; heap[i] = heap[weakest]; heap[weakest] = t;
+            i = weakest;
+        }
+    }
+
+    // Computes the share that every user in from..to passes to each of its followees, and returns
+    // the total rank of the users among them who follow nobody
+    @SuppressWarnings("serial")
+    private class ShareTask extends RecursiveTask<Double> {
+        private final double[] rank, share;
+        private final int from, to;
+
+        ShareTask(double[] rank, double[] share, int from, int to) {
+            this.rank = rank;
+            this.share = share;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from > LEAF_SIZE) {
+                int mid = (from + to) >>> 1;
+                ShareTask left = new ShareTask(rank, share, from, mid);
+                left.fork();
+                double right = new ShareTask(rank, share, mid, to).compute();
+                return left.join() + right;
+            }
+            double dangling = 0;
+            for (int u = from; u < to; u++) {
+                int degree = graph.outDegree(u);
+                if (degree == 0) dangling += rank[u];
+                share[u] = (degree == 0) ? 0 : rank[u] / degree;
+            }
+            return dangling;
+        }
+    }
+
+    // Computes the next rank of every user in from..to from the shares of its followers, and returns
+    // the total change
+    @SuppressWarnings("serial")
+    private class PullTask extends RecursiveTask<Double> {
+        private final double[] rank, next, share;
+        private final double damping, base;
+        private final int from, to;
+
+        PullTask(double[] rank, double[] next, double[] share, double damping, double base, int from, int to) {
+            this.rank = rank;
+            this.next = next;
+            this.share = share;
+            this.damping = damping;
+            this.base = base;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from > LEAF_SIZE) {
+                int mid = (from + to) >>> 1;
+                PullTask left = new PullTask(rank, next, share, damping, base, from, mid);
+                left.fork();
+                double right = new PullTask(rank, next, share, damping, base, mid, to).compute();
+                return left.join() + right;
+            }
+            double change = 0;
+            for (int v = from; v < to; v++) {
+                double sum = 0;
+                for (int e = graph.inStart[v]; e < graph.inStart[v + 1]; e++) {
+                    sum += share[graph.in[e]];
+                }
+                next[v] = base + damping * sum;
+                change += Math.abs(next[v] - rank[v]);
+            }
+            return change;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A parallel breadth-first search over a NetworkGraph, from one user to everybody it can reach,
+ *  for whole-graph traversals such as reach analysis and level histograms.
+ *
+ *  The search is direction-optimizing (Beamer et al.): while the frontier is small, a step is top-down
+ *  (every frontier user visits its edges, and claims unvisited users with a compare-and-set on an atomic
+ *  bitset); when the frontier's edges become a large part of the edges that are left, a step is
+ *  bottom-up (every unvisited user looks for any parent in the frontier bitset, and stops at the first
+ *  one). Both kinds of step are split between the tasks of a ForkJoinPool. A forward search follows the
+ *  follows and looks back through the followers; a backward search does the opposite. */
+public class ParallelBfs {
+
+    // Beamer's thresholds: go bottom-up when the frontier has more than 1/ALPHA of the unexplored
+    // edges, and top-down again when the frontier has fewer than 1/BETA of the users
+    private static final int ALPHA = 14;
+    private static final int BETA = 24;
+    private static final int FRONTIER_CHUNK = 256; // frontier users per top-down task
+    private static final int USER_CHUNK = 4096;    // users per bottom-up task (a multiple of 64)
+
+    private final int[] depth;   // depth[u] is the distance from the source, or -1 if u wasn't reached
+    private final int[] levelSizes;
+    private final int reachedCount;
+    private final int bottomUpSteps;
+
+    // The state of a running search
+    private final int n;
+    private final int[] forwardStart, forward;   // the edges that the search follows
+    private final int[] backwardStart, backward; // the same edges, reversed
+    private final AtomicLongArray visited;
+    private long[] frontierBits;
+    private int[] frontier, next;
+    private final AtomicInteger nextCount = new AtomicInteger();
+    private final LongAdder nextEdges = new LongAdder(); // the number of edges out of the next frontier
+
+    private ParallelBfs(NetworkGraph graph, int source, boolean backwardSearch, ForkJoinPool pool) {
+        n = graph.n;
+        forwardStart = backwardSearch ? graph.inStart : graph.outStart;
+        forward = backwardSearch ? graph.in : graph.out;
+        backwardStart = backwardSearch ? graph.outStart : graph.inStart;
+        backward = backwardSearch ? graph.out : graph.in;
+        depth = new int[n];
+        Arrays.fill(depth, -1);
+        visited = new AtomicLongArray((n + 63) / 64);
+        frontier = new int[n];
+        next = new int[n];
+
+        depth[source] = 0;
+        visited.set(source >>> 6, 1L << source);
+        frontier[0] = source;
+        int frontierCount = 1;
+        long frontierEdges = degree(source);
+        long unexploredEdges = forward.length - frontierEdges;
+        int[] levels = new int[16];
+        int levelCount = 0;
+        int reached = 0;
+        int bottomUp = 0;
+        boolean topDown = true;
+        while (frontierCount > 0) {
+            if (levelCount == levels.length) levels = Arrays.copyOf(levels, 2 * levelCount);
+            levels[levelCount++] = frontierCount;
+            reached += frontierCount;
+            if (topDown && frontierEdges > unexploredEdges / ALPHA) topDown = false;
+            else if (!topDown && frontierCount < n / BETA) topDown = true;
+
+            nextCount.set(0);
+            nextEdges.reset();
+            int level = levelCount - 1;
+            if (topDown) {
+                pool.invoke(new TopDownTask(level, 0, frontierCount));
+            } else {
+                frontierBits = new long[(n + 63) / 64];
+                for (int k = 0; k < frontierCount; k++) frontierBits[frontier[k] >>> 6] |= 1L << frontier[k];
+                pool.invoke(new BottomUpTask(level, 0, n));
+                bottomUp++;
+            }
+            int[] t = frontier; frontier = next; next = t;
+            frontierCount = nextCount.get();
+            frontierEdges = nextEdges.sum();
+            unexploredEdges -= frontierEdges;
+        }
+        levelSizes = Arrays.copyOf(levels, levelCount);
+        reachedCount = reached;
+        bottomUpSteps = bottomUp;
+        frontier = next = null;
+        frontierBits = null;
+    }
+
+    /** Searches forward (along the follows) from the given user, on the common ForkJoinPool. */
+    public static ParallelBfs run(NetworkGraph graph, int source) {
+        return run(graph, source, false, ForkJoinPool.commonPool());
+    }
+
+    /** Searches from the given user on the given pool: forward along the follows (who the user can
+     *  reach), or backward along the followers (who can reach the user). */
+    public static ParallelBfs run(NetworkGraph graph, int source, boolean backward, ForkJoinPool pool) {
+        return new ParallelBfs(graph, source, backward, pool);
+    }
+
+    /** Returns the distance of user u from the source, or -1 if the search didn't reach it. */
+    public int depth(int u) {
+        return depth[u];
+    }
+
+    /** Returns the number of users that the search reached, including the source. */
+    public int getReachedCount() {
+        return reachedCount;
+    }
+
+    /** Returns the level histogram: element d is the number of users at distance d from the source. */
+    public int[] getLevelSizes() {
+        return Arrays.copyOf(levelSizes, levelSizes.length);
+    }
+
+    /** Returns how many steps of the search were bottom-up. */
+    public int getBottomUpSteps() {
+        return bottomUpSteps;
+    }
+
+    private int degree(int u) {
+        return forwardStart[u + 1] - forwardStart[u];
+    }
+
+    // Sets the bit of u in the visited bitset; returns false if another task set it first
+    private boolean claim(int u) {
+        int word = u >>> 6;
+        long bit = 1L << u;
+        while (true) {
+            long bits = visited.get(word);
+            if ((bits & bit) != 0) return false;
+            if (visited.compareAndSet(word, bits, bits | bit)) return true;
+        }
+    }
+
+    // Appends a task's newly visited users to the next frontier
+    private void publish(int[] found, int count, long edges) {
+        if (count == 0) return;
+        System.arraycopy(found, 0, next, nextCount.getAndAdd(count), count);
+        nextEdges.add(edges);
+    }
+
+    // A top-down step for the frontier users frontier[from..to)
+    @SuppressWarnings("serial")
+    private class TopDownTask extends RecursiveAction {
+        private final int level, from, to;
+
+        TopDownTask(int level, int from, int to) {
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > FRONTIER_CHUNK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TopDownTask(level, from, mid), new TopDownTask(level, mid, to));
+                return;
+            }
+            int[] found = new int[64];
+            int count = 0;
+            long edges = 0;
+            for (int k = from; k < to; k++) {
+                int u = frontier[k];
+                for (int e = forwardStart[u]; e < forwardStart[u + 1]; e++) {
+                    int v = forward[e];
+                    if (depth[v] >= 0 || !claim(v)) continue;
+                    depth[v] = level + 1;
+                    if (count == found.length) found = Arrays.copyOf(found, 2 * count);
+                    found[count++] = v;
+                    edges += degree(v);
+                }
+            }
+            publish(found, count, edges);
+        }
+    }
+
+    // A bottom-up step for the users from..to (each task owns whole words of the visited bitset)
+    @SuppressWarnings("serial")
+    private class BottomUpTask extends RecursiveAction {
+        private final int level, from, to;
+
+        BottomUpTask(int level, int from, int to) {
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > USER_CHUNK) {
+                int mid = from + ((to - from) / 2 & ~63);
+                invokeAll(new BottomUpTask(level, from, mid), new BottomUpTask(level, mid, to));
+                return;
+            }
+            int[] found = new int[64];
+            int count = 0;
+            long edges = 0;
+            for (int v = from; v < to; v++) {
+                if ((visited.get(v >>> 6) & (1L << v)) != 0) continue;
+                for (int e = backwardStart[v]; e < backwardStart[v + 1]; e++) {
+                    int u = backward[e];
+                    if ((frontierBits[u >>> 6] & (1L << u)) != 0) {
+                        claim(v);
+                        depth[v] = level + 1;
+                        if (count == found.length) found = Arrays.copyOf(found, 2 * count);
+                        found[count++] = v;
+                        edges += degree(v);
+                        break;
+                    }
+                }
+            }
+            publish(found, count, edges);
+        }
+    }
+}
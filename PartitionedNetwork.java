@@ -0,0 +1,324 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** A client of a social network that is partitioned across several NetworkNode processes.
+ *  Every user lives on one node, chosen by the case-insensitive hash of its name, exactly like the
+ *  shards of ShardedNetwork. The client keeps one connection to every node.
+ *
+ *  Calls are batched per node: a query about many users sends one request to every node that owns
+ *  some of them, and the requests to the different nodes are all sent before any answer is read,
+ *  so a query costs about one round trip per hop. The methods of one client run one at a time.
+ *
+ *  If a call fails with an IOException, the answers of its requests may be unread or half read, so
+ *  all the connections are closed, and the next call connects to the nodes again. */
+public class PartitionedNetwork implements AutoCloseable {
+
+    private final Connection[] nodes;
+    private boolean closed;
+
+    // A call to the nodes (see call)
+    private interface Call<T> {
+        T run() throws IOException;
+    }
+
+    /** Connects to the nodes at the given addresses. The order of the addresses defines the partitioning,
+     *  so all the clients of the same nodes must list them in the same order. */
+    public PartitionedNetwork(InetSocketAddress... addresses) throws IOException {
+        nodes = new Connection[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            nodes[i] = new Connection(addresses[i]);
+        }
+    }
+
+    /** Closes the connections to the nodes. */
+    public synchronized void close() throws IOException {
+        closed = true;
+        for (Connection node : nodes) node.close();
+    }
+
+    /** Returns the number of users in this network. */
+    public synchronized int getUserCount() throws IOException {
+        return call(() -> {
+            for (Connection node : nodes) node.send(NetworkNode.USER_COUNT);
+            int count = 0;
+            for (Connection node : nodes) count += Varint.read(node.answer());
+            return count;
+        });
+    }
+
+    /** Adds a new user with the given name to its node. Returns false if the name is null,
+     *  if the node is full, or if the name is already a user in this network. */
+    public synchronized boolean addUser(String name) throws IOException {
+        return call(() -> {
+            if (name == null) return false;
+            Connection node = nodeOf(name);
+            node.send(NetworkNode.ADD_USER, name);
+            return node.answer().readBoolean();
+        });
+    }
+
+    /** Returns a copy of the user with the given name, or null if there is no such user. */
+    public synchronized User getUser(String name) throws IOException {
+        if (name == null) return null;
+        return getUsers(new String[] {name})[0];
+    }
+
+    /** Returns copies of the users with the given names (null for a name that is not a user).
+     *  Sends one request to every node that owns some of the names. */
+    public synchronized User[] getUsers(String[] names) throws IOException {
+        return call(() -> {
+            List<List<Integer>> byNode = partition(names);
+            for (int n = 0; n < nodes.length; n++) {
+                List<Integer> mine = byNode.get(n);
+                if (mine.isEmpty()) continue;
+                nodes[n].out.write(NetworkNode.GET_USERS);
+                Varint.write(nodes[n].out, mine.size());
+                for (int i : mine) Network.writeName(nodes[n].out, names[i]);
+                nodes[n].out.flush();
+            }
+            User[] users = new User[names.length];
+            for (int n = 0; n < nodes.length; n++) {
+                if (byNode.get(n).isEmpty()) continue;
+                nodes[n].answer();
+                for (int i : byNode.get(n)) {
+                    if (!nodes[n].in.readBoolean()) continue;
+                    users[i] = readUser(nodes[n].in);
+                }
+            }
+            return users;
+        });
+    }
+
+    /** Makes the user with name1 follow the user with name2. If successful, returns true.
+     *  If any of the two names is not a user in this network,
+     *  or if the "follows" addition failed for some reason, returns false. */
+    public synchronized boolean addFollowee(String name1, String name2) throws IOException {
+        return call(() -> {
+            if (name1 == null || name2 == null) return false;
+            Connection owner2 = nodeOf(name2);
+            owner2.send(NetworkNode.HAS_USER, name2);
+            if (!owner2.answer().readBoolean()) return false;
+            Connection owner1 = nodeOf(name1);
+            owner1.send(NetworkNode.ADD_FOLLOWEE, name1, name2);
+            return owner1.answer().readBoolean();
+        });
+    }
+
+    /** Makes the user with name1 stop following the user with name2. If successful, returns true. */
+    public synchronized boolean removeFollowee(String name1, String name2) throws IOException {
+        return call(() -> {
+            if (name1 == null || name2 == null) return false;
+            Connection owner1 = nodeOf(name1);
+            owner1.send(NetworkNode.REMOVE_FOLLOWEE, name1, name2);
+            return owner1.answer().readBoolean();
+        });
+    }
+
+    /** Returns true if the user with name1 follows the user with name2. */
+    public synchronized boolean follows(String name1, String name2) throws IOException {
+        return follows(new String[] {name1}, new String[] {name2})[0];
+    }
+
+    /** For every i, returns whether followers[i] follows followees[i].
+     *  Sends one request to every node that owns some of the followers. */
+    public synchronized boolean[] follows(String[] followers, String[] followees) throws IOException {
+        return call(() -> {
+            List<List<Integer>> byNode = partition(followers);
+            for (int n = 0; n < nodes.length; n++) {
+                List<Integer> mine = byNode.get(n);
+                if (mine.isEmpty()) continue;
+                nodes[n].out.write(NetworkNode.FOLLOWS_BATCH);
+                Varint.write(nodes[n].out, mine.size());
+                for (int i : mine) {
+                    Network.writeName(nodes[n].out, followers[i]);
+                    Network.writeName(nodes[n].out, followees[i] == null ? "" : followees[i]);
+                }
+                nodes[n].out.flush();
+            }
+            boolean[] result = new boolean[followers.length];
+            for (int n = 0; n < nodes.length; n++) {
+                if (byNode.get(n).isEmpty()) continue;
+                nodes[n].answer();
+                for (int i : byNode.get(n)) result[i] = nodes[n].in.readBoolean();
+            }
+            return result;
+        });
+    }
+
+    /** Counts the number of users that both users follow. Both users are fetched in one batch. */
+    public synchronized int countMutual(String name1, String name2) throws IOException {
+        User[] users = getUsers(new String[] {name1, name2});
+        if (users[0] == null || users[1] == null) return 0;
+        return users[0].countMutual(users[1]);
+    }
+
+    /** For the user with the given name, recommends another user to follow: the user that has the
+     *  maximal number of mutual followees with the given user. Returns null if there is no such user.
+     *  The first hop fetches the user's follows list from its node; the second hop sends the list to
+     *  all the nodes at once, and every node answers with its best local candidate. */
+    public synchronized String recommendWhoToFollow(String name) throws IOException {
+        return call(() -> {
+            User user = getUser(name);
+            if (user == null) return null;
+            String[] follows = user.getfFollows();
+            for (Connection node : nodes) {
+                node.out.write(NetworkNode.MOST_MUTUAL);
+                Network.writeName(node.out, user.getName());
+                Varint.write(node.out, user.getfCount());
+                for (int j = 0; j < user.getfCount(); j++) Network.writeName(node.out, follows[j]);
+                node.out.flush();
+            }
+            String best = null;
+            int max = 0;
+            for (Connection node : nodes) {
+                if (node.answer().readBoolean()) {
+                    String candidate = Network.readName(node.in);
+                    int mutual = Varint.read(node.in);
+                    if (mutual > max) {
+                        best = candidate;
+                        max = mutual;
+                    }
+                }
+            }
+            return best;
+        });
+    }
+
+    /** Returns the name of the most popular user in this network: the user who appears the most
+     *  in the follow lists of all the users. Every node counts the names in its own follows lists.
+     *  Returns null if the network is empty. */
+    public synchronized String mostPopularUser() throws IOException {
+        return call(() -> {
+            for (Connection node : nodes) node.send(NetworkNode.COUNT_FOLLOWEES);
+            HashMap<String, Integer> counts = new HashMap<String, Integer>();
+            for (Connection node : nodes) {
+                int size = Varint.read(node.answer());
+                for (int i = 0; i < size; i++) {
+                    String followee = Network.readName(node.in);
+                    counts.merge(followee, Varint.read(node.in), Integer::sum);
+                }
+            }
+            for (Connection node : nodes) node.send(NetworkNode.LIST_USERS);
+            String best = null;
+            int max = -1;
+            for (Connection node : nodes) {
+                int size = Varint.read(node.answer());
+                for (int i = 0; i < size; i++) {
+                    String user = Network.readName(node.in);
+                    int count = counts.getOrDefault(NameKey.key(user), 0);
+                    if (count > max) {
+                        best = user;
+                        max = count;
+                    }
+                }
+            }
+            return best;
+        });
+    }
+
+    // Runs a call, after connecting again to the nodes whose connections were closed by a failure.
+    // If the call fails, closes all the connections: some of them may have answers that were not read.
+    private <T> T call(Call<T> call) throws IOException {
+        if (closed) throw new IOException("The network is closed");
+        for (Connection node : nodes) node.open();
+        try {
+            return call.run();
+        } catch (IOException e) {
+            for (Connection node : nodes) node.abandon();
+            throw e;
+        }
+    }
+
+    private Connection nodeOf(String name) {
+        return nodes[Math.floorMod(NameKey.hash(name), nodes.length)];
+    }
+
+    // Splits the indexes of the given names by the node that owns each name (null names are skipped)
+    private List<List<Integer>> partition(String[] names) {
+        List<List<Integer>> byNode = new ArrayList<List<Integer>>();
+        for (int n = 0; n < nodes.length; n++) byNode.add(new ArrayList<Integer>());
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null) continue;
+            byNode.get(Math.floorMod(NameKey.hash(names[i]), nodes.length)).add(i);
+        }
+        return byNode;
+    }
+
+    private static User readUser(DataInputStream in) throws IOException {
+        User user = new User(Network.readName(in));
+        int count = Varint.read(in);
+        for (int j = 0; j < count; j++) {
+            user.appendFollowee(Network.readName(in));
+        }
+        return user;
+    }
+
+    // The connection to one node. It is closed after a failure, and opened again by the next call.
+    private static class Connection {
+        private final InetSocketAddress address;
+        private Socket socket; // null while the connection is closed
+        DataInputStream in;
+        DataOutputStream out;
+
+        Connection(InetSocketAddress address) throws IOException {
+            this.address = address;
+            open();
+        }
+
+        // Connects to the node, unless the connection is open
+        void open() throws IOException {
+            if (socket != null) return;
+            Socket s = new Socket();
+            try {
+                s.setTcpNoDelay(true);
+                s.connect(address);
+                in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+            socket = s;
+        }
+
+        // Sends a request with the given names as its arguments
+        void send(int op, String... names) throws IOException {
+            out.write(op);
+            for (String name : names) Network.writeName(out, name);
+            out.flush();
+        }
+
+        // Reads the status of the next answer, and returns the stream to read the answer from.
+        // Throws IOException with the node's message if the node couldn't apply the request.
+        DataInputStream answer() throws IOException {
+            int status = in.readUnsignedByte();
+            if (status == NetworkNode.FAILED) throw new IOException("The node failed: " + Network.readName(in));
+            if (status != NetworkNode.OK) throw new IOException("Bad answer status " + status);
+            return in;
+        }
+
+        // Closes the connection after a failure, ignoring any further error
+        void abandon() {
+            try {
+                close();
+            } catch (IOException e) {
+                // the connection is unusable either way
+            }
+        }
+
+        void close() throws IOException {
+            if (socket == null) return;
+            Socket s = socket;
+            socket = null;
+            s.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/** Tests the PartitionedNetwork class, with three NetworkNode partitions on localhost. */
+public class PartitionedNetworkTest {
+    public static void main(String[] args) throws IOException {
+        System.out.println("Testing the PartitionedNetwork class...\n");
+
+        System.out.println("...Starting three nodes on localhost...");
+        NetworkNode[] nodes = new NetworkNode[3];
+        InetSocketAddress[] addresses = new InetSocketAddress[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new NetworkNode(0, 100);
+            addresses[i] = new InetSocketAddress("localhost", nodes[i].getPort());
+        }
+
+        try (PartitionedNetwork net = new PartitionedNetwork(addresses)) {
+            System.out.println("\n...Adding Users...");
+            String[] names = {"Alex", "Orly", "Idan", "Keren", "Neta", "Zohar", "Or", "Uri", "Maya"};
+            for (String name : names) net.addUser(name);
+            System.out.println("Number of users (should be 9): " + net.getUserCount());
+            System.out.println("Adding alex again (should be false): " + net.addUser("alex"));
+
+            System.out.println("\n...Adding follows relationships...");
+            net.addFollowee("Alex", "Keren");
+            net.addFollowee("Alex", "Neta");
+            net.addFollowee("Alex", "Zohar");
+            net.addFollowee("Orly", "Zohar");
+            net.addFollowee("Orly", "Or");
+            net.addFollowee("Orly", "Uri");
+            net.addFollowee("Orly", "Maya");
+            net.addFollowee("Idan", "Or");
+            net.addFollowee("Idan", "Zohar");
+            net.addFollowee("Idan", "Neta");
+            System.out.println("Following a user that doesn't exist (should be false): " + net.addFollowee("Alex", "Gil"));
+            System.out.println(net.getUser("Alex"));
+
+            System.out.println("\n...Checking several follows in one batch...");
+            boolean[] follows = net.follows(new String[] {"Alex", "Orly", "Idan", "Maya"},
+                                            new String[] {"Neta", "Neta", "Neta", "Alex"});
+            System.out.println("Alex, Orly, Idan, Maya follow (should be true false true false): "
+                               + follows[0] + " " + follows[1] + " " + follows[2] + " " + follows[3]);
+            System.out.println("Mutual followees of Alex and Idan (should be 2): " + net.countMutual("Alex", "Idan"));
+
+            System.out.println("\n...Suggesting to Alex which user to follow...");
+            System.out.println("Alex: based on our social network analysis, we recommemd to follow " + net.recommendWhoToFollow("Alex"));
+
+            System.out.println("\n...Finding the most popular user...");
+            System.out.println("The most popular user is: " + net.mostPopularUser());
+        }
+
+        System.out.println("\n...Asking a node for the best match of a user who follows too many users...");
+        try (Socket socket = new Socket("localhost", nodes[0].getPort())) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.write(NetworkNode.MOST_MUTUAL);
+            Network.writeName(out, "Alex");
+            Varint.write(out, User.maxfCount + 1);
+            for (int j = 0; j <= User.maxfCount; j++) Network.writeName(out, "Name" + j);
+            out.write(NetworkNode.USER_COUNT);
+            out.flush();
+            System.out.println("The node failed the request (should be true): " + (in.readUnsignedByte() == NetworkNode.FAILED)
+                               + ", with the message: " + Network.readName(in));
+            System.out.println("The connection still answers the next request (should be true): "
+                               + (in.readUnsignedByte() == NetworkNode.OK && Varint.read(in) >= 0));
+        }
+        for (NetworkNode node : nodes) node.close();
+
+        System.out.println("\nAll PartitionedNetwork class tests completed.");
+    }
+}
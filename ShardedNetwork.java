@@ -0,0 +1,224 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** A social network that is split into several shards, to use more than one core for writes.
+ *  Every user lives in one shard, chosen by the case-insensitive hash of its name (see NameKey).
+ *  Every shard is an ordinary Network that is owned by its own single-thread executor, so a shard
+ *  never needs locks, and operations on different shards run in parallel.
+ *
+ *  Operations on one user go to that user's shard. Operations that look at the whole network
+ *  (recommendWhoToFollow and mostPopularUser) are scatter-gather: every shard computes a partial
+ *  result over its own users, and the partial results are combined. */
+public class ShardedNetwork implements AutoCloseable {
+
+    private final Network[] shards;
+    private final ExecutorService[] owners; // owners[i] is the only thread that touches shards[i]
+
+    /** Creates a network with the given number of shards, each holding up to maxUsersPerShard users. */
+    public ShardedNetwork(int shardCount, int maxUsersPerShard) {
+        shards = new Network[shardCount];
+        owners = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Network(maxUsersPerShard);
+            final int shard = i;
+            owners[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "network-shard-" + shard);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** Returns the number of users in this network. */
+    public int getUserCount() {
+        int count = 0;
+        for (int c : gather(network -> network.getUserCount())) count += c;
+        return count;
+    }
+
+    /** Returns a copy of the user with the given name, or null if there is no such user. */
+    public User getUser(String name) {
+        if (name == null) return null;
+        return on(shardOf(name), network -> {
+            User user = network.getUser(name);
+            return (user == null) ? null : copy(user);
+        });
+    }
+
+    /** Adds a new user with the given name to its shard. Returns false if the name is null,
+     *  if the shard is full, or if the name is already a user in this network. */
+    public boolean addUser(String name) {
+        if (name == null) return false;
+        return on(shardOf(name), network -> network.addUser(name));
+    }
+
+    /** Makes the user with name1 follow the user with name2. If successful, returns true.
+     *  If any of the two names is not a user in this network,
+     *  or if the "follows" addition failed for some reason, returns false. */
+    public boolean addFollowee(String name1, String name2) {
+        if (name1 == null || name2 == null) return false;
+        if (!on(shardOf(name2), network -> network.getUser(name2) != null)) return false;
+        return on(shardOf(name1), network -> network.addExternalFollowee(name1, name2));
+    }
+
+    /** Makes the user with name1 stop following the user with name2. If successful, returns true. */
+    public boolean removeFollowee(String name1, String name2) {
+        if (name1 == null || name2 == null) return false;
+        return on(shardOf(name1), network -> network.removeFollowee(name1, name2));
+    }
+
+    /** For the user with the given name, recommends another user to follow: the user that has the
+     *  maximal number of mutual followees with the given user. Returns null if there is no such user.
+     *  Every shard finds its own best candidate, and the best of those wins. */
+    public String recommendWhoToFollow(String name) {
+        User user = getUser(name);
+        if (user == null) return null;
+        User best = null;
+        int max = 0;
+        for (User candidate : gather(network -> mostMutual(network, user))) {
+            if (candidate == null) continue;
+            int mutual = candidate.countMutual(user);
+            if (mutual > max) {
+                best = candidate;
+                max = mutual;
+            }
+        }
+        return (best == null) ? null : best.getName();
+    }
+
+    /** Returns the name of the most popular user in this network: the user who appears the most
+     *  in the follow lists of all the users. Every shard counts the names in its own follows lists,
+     *  and the counts are added up. Returns null if the network is empty. */
+    public String mostPopularUser() {
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        for (HashMap<String, Integer> partial : gather(ShardedNetwork::countFollowees)) {
+            for (Map.Entry<String, Integer> e : partial.entrySet()) {
+                counts.merge(e.getKey(), e.getValue(), Integer::sum);
+            }
+        }
+        String best = null;
+        int max = -1;
+        for (List<String> names : gather(ShardedNetwork::names)) {
+            for (String name : names) {
+                int count = counts.getOrDefault(NameKey.key(name), 0);
+                if (count > max) {
+                    best = name;
+                    max = count;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Returns a textual description of all the users in this network, shard by shard. */
+    public String toString() {
+        StringBuilder str = new StringBuilder("Network:");
+        for (String shard : gather(network -> network.toString())) {
+            str.append(shard.substring("Network:".length()));
+        }
+        return str.toString();
+    }
+
+    /** Closes the shards (each on its own executor), and stops the executors. */
+    public void close() {
+        for (int i = 0; i < shards.length; i++) {
+            owners[i].execute(shards[i]::close);
+            owners[i].shutdown();
+        }
+    }
+
+    private int shardOf(String name) {
+        return Math.floorMod(NameKey.hash(name), shards.length);
+    }
+
+    // Runs the given task on the owner of the given shard, and waits for its result
+    private <T> T on(int shard, Task<T> task) {
+        return await(owners[shard].submit(call(shard, task)));
+    }
+
+    // Runs the given task on all the shards in parallel, and returns their results in shard order
+    private <T> List<T> gather(Task<T> task) {
+        List<Future<T>> futures = new ArrayList<Future<T>>();
+        for (int i = 0; i < shards.length; i++) {
+            futures.add(owners[i].submit(call(i, task)));
+        }
+        List<T> results = new ArrayList<T>();
+        for (Future<T> f : futures) results.add(await(f));
+        return results;
+    }
+
+    private <T> Callable<T> call(int shard, Task<T> task) {
+        return () -> task.run(shards[shard]);
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a shard", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A shard failed", e.getCause());
+        }
+    }
+
+    // Returns a copy of the user in the given shard (other than the given user) that has the most
+    // mutual followees with the given user, or null if no user has any
+    private static User mostMutual(Network network, User user) {
+        User best = null;
+        int max = 0;
+        for (int i = 0; i < network.getUserCount(); i++) {
+            User other = network.userAt(i);
+            if (other.getName().equalsIgnoreCase(user.getName())) continue;
+            int mutual = other.countMutual(user);
+            if (mutual > max) {
+                best = other;
+                max = mutual;
+            }
+        }
+        return (best == null) ? null : copy(best);
+    }
+
+    // Counts how many users of the given shard follow every name (by its NameKey.key)
+    private static HashMap<String, Integer> countFollowees(Network network) {
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < network.getUserCount(); i++) {
+            User user = network.userAt(i);
+            String[] follows = user.getfFollows();
+            for (int j = 0; j < user.getfCount(); j++) {
+                counts.merge(NameKey.key(follows[j]), 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    private static List<String> names(Network network) {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < network.getUserCount(); i++) {
+            names.add(network.userAt(i).getName());
+        }
+        return names;
+    }
+
+    // Users are handed out as copies, so that only the owner thread touches the shard's objects
+    private static User copy(User user) {
+        User result = new User(user.getName());
+        String[] follows = user.getfFollows();
+        for (int j = 0; j < user.getfCount(); j++) {
+            result.appendFollowee(follows[j]);
+        }
+        return result;
+    }
+
+    // A piece of work on one shard
+    private interface Task<T> {
+        T run(Network network);
+    }
+}
@@ -0,0 +1,74 @@
+/** Intersection of sorted int lists (e.g. the adjacency lists of a NetworkGraph).
+ *  Lists are given as a range of an array: a[aFrom..aTo) holds increasing values.
+ *  When one list is much shorter than the other, the values of the short list are searched in the
+ *  long one ("galloping"), which costs O(short * log long) instead of O(short + long). */
+public class SortedInts {
+
+    // Gallops when the longer list is at least this many times longer than the shorter one
+    private static final int GALLOP_RATIO = 16;
+
+    /** Returns the number of values that appear in both lists. */
+    public static int intersectionSize(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo) {
+        return intersection(a, aFrom, aTo, b, bFrom, bTo, null);
+    }
+
+    /** Writes the values that appear in both lists to into (from index 0, in increasing order),
+     *  and returns their number. If into is null, only counts them. */
+    public static int intersection(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo, int[] into) {
+        if (aTo - aFrom > bTo - bFrom) { // makes a the shorter list
+            int[] t = a; a = b; b = t;
+            int from = aFrom; aFrom = bFrom; bFrom = from;
+            int to = aTo; aTo = bTo; bTo = to;
+        }
+        int count = 0;
+        if ((long) (aTo - aFrom) * GALLOP_RATIO < bTo - bFrom) {
+            for (int i = aFrom; i < aTo && bFrom < bTo; i++) {
+                bFrom = gallop(b, bFrom, bTo, a[i]);
+                if (bFrom < bTo && b[bFrom] == a[i]) {
+                    if (into != null) into[count] = a[i];
+                    count++;
+                    bFrom++;
+                }
+            }
+            return count;
+        }
+        int i = aFrom, j = bFrom;
+        while (i < aTo && j < bTo) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                if (into != null) into[count] = a[i];
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /** Returns true if the list holds the given value (binary search). */
+    public static boolean contains(int[] a, int from, int to, int value) {
+        int k = gallop(a, from, to, value);
+        return k < to && a[k] == value;
+    }
+
+    // Returns the first index in a[from..to) whose value is >= value (or to): doubles the step from
+    // the start, then searches the last step, so values near the start are found quickly
+    private static int gallop(int[] a, int from, int to, int value) {
+        int step = 1;
+        int low = from;
+        int high = from;
+        while (high < to && a[high] < value) {
+            low = high + 1;
+            high = from + step;
+            step *= 2;
+        }
+        high = Math.min(high, to);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (a[mid] < value) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,145 @@
+import java.util.Arrays;
+
+/** The strongly connected components of the follow graph (groups of users who can all reach each
+ *  other by chains of follows), and the condensed graph: the DAG that has an edge from component a to
+ *  component b if a user of a follows a user of b.
+ *
+ *  The components are found with Tarjan's algorithm, written as a loop over an explicit stack of
+ *  (user, next edge) pairs instead of recursion, so long chains of follows can't overflow the call
+ *  stack. It takes O(N + E) time and a few int arrays of N entries. Components are numbered in
+ *  topological order: every edge of the DAG goes from a smaller component to a larger one. */
+public class StrongComponents {
+
+    private final NetworkGraph graph;
+    private final int[] labels;    // labels[u] is the component of user u
+    private final int count;       // number of components
+    private final int[] sizes;
+    private final int[] dagStart;  // the successors of component c are dag[dagStart[c]..dagStart[c+1]), in increasing order
+    private final int[] dag;
+
+    private StrongComponents(NetworkGraph graph) {
+        this.graph = graph;
+        int n = graph.n;
+        int[] order = new int[n];  // 1 + the discovery order of every user, or 0 if it wasn't visited yet
+        int[] low = new int[n];    // the smallest order reachable from the user's subtree, through the stack
+        int[] stack = new int[n];  // Tarjan's stack: visited users whose component isn't known yet
+        int[] callUser = new int[n];
+        int[] callEdge = new int[n]; // the next edge of callUser[k] to look at
+        labels = new int[n];
+        Arrays.fill(labels, -1);
+        int visited = 0, top = 0, calls = 0, components = 0;
+
+        for (int s = 0; s < n; s++) {
+            if (order[s] != 0) continue;
+            order[s] = low[s] = ++visited;
+            stack[top++] = s;
+            callUser[calls] = s;
+            callEdge[calls++] = graph.outStart[s];
+            while (calls > 0) {
+                int u = callUser[calls - 1];
+                int e = callEdge[calls - 1];
+                if (e < graph.outStart[u + 1]) {
+                    callEdge[calls - 1] = e + 1;
+                    int v = graph.out[e];
+                    if (order[v] == 0) { // "recursive call" on v
+                        order[v] = low[v] = ++visited;
+                        stack[top++] = v;
+                        callUser[calls] = v;
+                        callEdge[calls++] = graph.outStart[v];
+                    } else if (labels[v] < 0) { // v is on the stack
+                        low[u] = Math.min(low[u], order[v]);
+                    }
+                } else { // "return" from u
+                    calls--;
+                    if (low[u] == order[u]) { // u is the root of a component: pops it
+                        int v;
+                        do {
+                            v = stack[--top];
+                            labels[v] = components;
+                        } while (v != u);
+                        components++;
+                    }
+                    if (calls > 0) {
+                        int parent = callUser[calls - 1];
+                        low[parent] = Math.min(low[parent], low[u]);
+                    }
+                }
+            }
+        }
+        count = components;
+
+        // Tarjan finds the components in reverse topological order
+        sizes = new int[count];
+        for (int u = 0; u < n; u++) {
+            labels[u] = count - 1 - labels[u];
+            sizes[labels[u]]++;
+        }
+
+        // The condensed graph: the users of every component (reusing order and stack), then the
+        // distinct components that they follow (lastFrom marks the targets seen for the current component)
+        int[] memberStart = order;
+        Arrays.fill(memberStart, 0);
+        int[] members = stack;
+        int[] next = low;
+        for (int c = 0; c + 1 < count; c++) memberStart[c + 1] = memberStart[c] + sizes[c];
+        System.arraycopy(memberStart, 0, next, 0, count);
+        for (int u = 0; u < n; u++) members[next[labels[u]]++] = u;
+        int[] lastFrom = callUser;
+        Arrays.fill(lastFrom, -1);
+        dagStart = new int[count + 1];
+        int[] edges = new int[16];
+        int edgeCount = 0;
+        for (int c = 0; c < count; c++) {
+            for (int k = memberStart[c]; k < memberStart[c] + sizes[c]; k++) {
+                int u = members[k];
+                for (int e = graph.outStart[u]; e < graph.outStart[u + 1]; e++) {
+                    int d = labels[graph.out[e]];
+                    if (d == c || lastFrom[d] == c) continue;
+                    lastFrom[d] = c;
+                    if (edgeCount == edges.length) edges = Arrays.copyOf(edges, 2 * edgeCount);
+                    edges[edgeCount++] = d;
+                }
+            }
+            Arrays.sort(edges, dagStart[c], edgeCount);
+            dagStart[c + 1] = edgeCount;
+        }
+        dag = Arrays.copyOf(edges, edgeCount);
+    }
+
+    /** Finds the strongly connected components of the given graph. */
+    public static StrongComponents of(NetworkGraph graph) {
+        return new StrongComponents(graph);
+    }
+
+    /** Returns the number of components. */
+    public int getComponentCount() {
+        return count;
+    }
+
+    /** Returns the component of user u (0 to getComponentCount() - 1). */
+    public int componentOf(int u) {
+        return labels[u];
+    }
+
+    /** Returns the component of the user with the given name, or -1 if there is no such user. */
+    public int componentOf(String name) {
+        int u = graph.indexOf(name);
+        return (u < 0) ? -1 : labels[u];
+    }
+
+    /** Returns the number of users in component c. */
+    public int componentSize(int c) {
+        return sizes[c];
+    }
+
+    /** Returns the number of edges of the condensed DAG. */
+    public int getDagEdgeCount() {
+        return dag.length;
+    }
+
+    /** Returns the components that component c has DAG edges to, in increasing order
+     *  (all of them larger than c). */
+    public int[] successors(int c) {
+        return Arrays.copyOfRange(dag, dagStart[c], dagStart[c + 1]);
+    }
+}
@@ -0,0 +1,141 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts the triangles of the follow graph, and computes clustering coefficients.
+ *  The graph is taken as undirected here: two users are neighbors if either follows the other,
+ *  and a triangle is three users that are all neighbors of each other.
+ *
+ *  Every edge is oriented from the lower-ranked end to the higher-ranked one, where users are ranked by
+ *  degree (ties by number). Every triangle is then found exactly once, from its lowest-ranked user u: for
+ *  every higher neighbor v of u, the common higher neighbors of u and v (an intersection of two sorted
+ *  lists, see SortedInts) close triangles. Orientation by degree keeps every oriented list short, even
+ *  for users with very many followers. The users are split between the tasks of a ForkJoinPool. */
+public class TriangleCount {
+
+    // A task counts the triangles of at most this many users itself, and splits larger ranges
+    private static final int LEAF_SIZE = 512;
+
+    private final NetworkGraph graph;
+    private final long triangleCount;
+    private final AtomicLongArray triangles; // triangles[u] is the number of triangles that u is part of
+    private final int[] degrees;             // the undirected degree of every user
+
+    private TriangleCount(NetworkGraph graph, ForkJoinPool pool) {
+        this.graph = graph;
+        int n = graph.n;
+        int[] start = graph.neighborStart();
+        int[] neighbors = graph.neighbors();
+        degrees = new int[n];
+        for (int u = 0; u < n; u++) degrees[u] = start[u + 1] - start[u];
+
+        // The oriented graph: the higher-ranked neighbors of every user, still in increasing order
+        int[] higherStart = new int[n + 1];
+        int[] higher = new int[neighbors.length / 2];
+        int count = 0;
+        for (int u = 0; u < n; u++) {
+            for (int e = start[u]; e < start[u + 1]; e++) {
+                if (ranksBelow(u, neighbors[e])) higher[count++] = neighbors[e];
+            }
+            higherStart[u + 1] = count;
+        }
+
+        triangles = new AtomicLongArray(n);
+        LongAdder total = new LongAdder();
+        pool.invoke(new CountTask(higherStart, higher, 0, n, total));
+        triangleCount = total.sum();
+    }
+
+    /** Counts the triangles of the given graph on the common ForkJoinPool. */
+    public static TriangleCount of(NetworkGraph graph) {
+        return of(graph, ForkJoinPool.commonPool());
+    }
+
+    /** Counts the triangles of the given graph on the given ForkJoinPool. */
+    public static TriangleCount of(NetworkGraph graph, ForkJoinPool pool) {
+        return new TriangleCount(graph, pool);
+    }
+
+    /** Returns the number of triangles in the graph. */
+    public long getTriangleCount() {
+        return triangleCount;
+    }
+
+    /** Returns the number of triangles that user u is part of. */
+    public long getTriangleCount(int u) {
+        return triangles.get(u);
+    }
+
+    /** Returns the local clustering coefficient of user u: the fraction of the pairs of its neighbors
+     *  that are neighbors of each other (0 if u has fewer than two neighbors). */
+    public double localClustering(int u) {
+        long pairs = (long) degrees[u] * (degrees[u] - 1) / 2;
+        return (pairs == 0) ? 0 : (double) triangles.get(u) / pairs;
+    }
+
+    /** Returns the average of the local clustering coefficients of all the users (0 for an empty graph). */
+    public double averageClustering() {
+        double sum = 0;
+        for (int u = 0; u < graph.n; u++) sum += localClustering(u);
+        return (graph.n == 0) ? 0 : sum / graph.n;
+    }
+
+    /** Returns the global clustering coefficient (transitivity): 3 * triangles / connected triples. */
+    public double globalClustering() {
+        long triples = 0;
+        for (int u = 0; u < graph.n; u++) triples += (long) degrees[u] * (degrees[u] - 1) / 2;
+        return (triples == 0) ? 0 : 3.0 * triangleCount / triples;
+    }
+
+    // True if u ranks below v: a smaller degree, or the same degree and a smaller number
+    private boolean ranksBelow(int u, int v) {
+        return degrees[u] < degrees[v] || (degrees[u] == degrees[v] && u < v);
+    }
+
+    // Counts the triangles whose lowest-ranked user is in [from, to)
+    @SuppressWarnings("serial")
+    private class CountTask extends RecursiveAction {
+        private final int[] higherStart;
+        private final int[] higher;
+        private final int from;
+        private final int to;
+        private final LongAdder total;
+
+        CountTask(int[] higherStart, int[] higher, int from, int to, LongAdder total) {
+            this.higherStart = higherStart;
+            this.higher = higher;
+            this.from = from;
+            this.to = to;
+            this.total = total;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF_SIZE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new CountTask(higherStart, higher, from, mid, total),
+                          new CountTask(higherStart, higher, mid, to, total));
+                return;
+            }
+            int[] common = new int[0];
+            long found = 0;
+            for (int u = from; u < to; u++) {
+                int uFrom = higherStart[u], uTo = higherStart[u + 1];
+                if (uTo - uFrom > common.length) common = new int[uTo - uFrom];
+                long uTriangles = 0;
+                for (int e = uFrom; e < uTo; e++) {
+                    int v = higher[e];
+                    int k = SortedInts.intersection(higher, uFrom, uTo, higher, higherStart[v], higherStart[v + 1], common);
+                    if (k == 0) continue;
+                    uTriangles += k;
+                    triangles.addAndGet(v, k);
+                    for (int i = 0; i < k; i++) triangles.incrementAndGet(common[i]);
+                }
+                if (uTriangles > 0) triangles.addAndGet(u, uTriangles);
+                found += uTriangles;
+            }
+            total.add(found);
+        }
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.BitSet;
+
 /** Represents a user in a social network. A user is characterized by a name,
  *  a list of user names that s/he follows, and the list's size. */
  public class User {
@@ -6,13 +8,18 @@
     static int maxfCount = 10;
 
     private String name;       // name of this user
-    private String[] follows;  // array of user names that this user follows
+    private int[] follows;     // array of the names that this user follows, as NameDictionary ids
     private int fCount;        // actual number of followees (must be <= maxfCount)
+    private int nameHash;      // the case-insensitive hash of the name (see NameKey), computed once
+    private int nameId = -1;   // the NameDictionary id of the name, or -1 until it is first needed
+    private NameFilter followsFilter; // if not null, a Bloom filter of the followees (see setFollowsFilter)
+    private Network owner;      // the network that holds this user, or null; it makes the changes to the follows list
 
     /** Creates a user with an empty list of followees. */
     public User(String name) {
         this.name = name;
-        follows = new String[maxfCount]; // fixed-size array for storing followees
+        this.nameHash = (name == null) ? 0 : NameKey.hash(name);
+        follows = new int[maxfCount];    // fixed-size array for storing followees
         fCount = 0;                      // initial number of followees
     }
 
@@ -20,9 +27,9 @@
      *  to allow testing the toString and follows methods, before implementing other methods. */
     public User(String name, boolean gettingStarted) {
         this(name);
-        follows[0] = "Foo";
-        follows[1] = "Bar";
-        follows[2] = "Baz";
+        follows[0] = NameDictionary.intern("Foo");
+        follows[1] = NameDictionary.intern("Bar");
+        follows[2] = NameDictionary.intern("Baz");
         fCount = 3;
     }
 
@@ -31,9 +38,43 @@
         return name;
     }
 
-    /** Returns the follows array. */
+    /** Sets the network that holds this user (null when the user leaves it). While a user has an owner,
+     *  addFollowee and removeFollowee go through the owner, so its indexes and its log see the change. */
+    void setOwner(Network owner) {
+        this.owner = owner;
+    }
+
+    /** Puts a Bloom filter with the given false positive rate in front of the follows list, so that
+     *  most checks of names that this user doesn't follow return without comparing any names.
+     *  A rate of 0 removes the filter. The filter takes at least 64 bits (see NameFilter). */
+    public void setFollowsFilter(double falsePositiveRate) {
+        followsFilter = (falsePositiveRate == 0) ? null : new NameFilter(maxfCount, falsePositiveRate);
+        rebuildFollowsFilter();
+    }
+
+    /** Returns the case-insensitive hash of this user's name (see NameKey). */
+    int getNameHash() {
+        return nameHash;
+    }
+
+    /** Returns the NameDictionary id of this user's name, interning it the first time. */
+    int getNameId() {
+        if (nameId < 0) nameId = NameDictionary.intern(name);
+        return nameId;
+    }
+
+    /** Returns the follows array. The names are decoded from the NameDictionary into a new array. */
     public String[] getfFollows() {
-        return follows;
+        String[] names = new String[maxfCount];
+        for (int i = 0; i < fCount; i++) {
+            names[i] = NameDictionary.name(follows[i]);
+        }
+        return names;
+    }
+
+    /** Returns the NameDictionary id of the i'th name that this user follows. */
+    int getFolloweeId(int i) {
+        return follows[i];
     }
 
     /** Returns the number of users that this user follows. */
@@ -43,15 +84,64 @@
 
     /** If this user follows the given name, returns true; otherwise returns false. */
     public boolean follows (String name) {
+        if (fCount == 0 || (followsFilter != null && !mightFollow(NameKey.hash(name)))) return false;
         for (int i = 0; i < fCount; i++) {
-            if (name.toLowerCase().equals(follows[i].toLowerCase())) return true;
+            if (NameDictionary.equalsIgnoreCase(follows[i], name)) return true;
         }
         return false;
     }
+
+    /** Checks a whole batch of names at once: returns a bitmap with bit k set if this user follows
+     *  names[k] (a null name is not followed). The hashes of the followees are computed once, so
+     *  every name costs one hash and a few int comparisons; names are compared only on a hash match. */
+    public BitSet followsAll(String[] names) {
+        BitSet result = new BitSet(names.length);
+        int[] hashes = new int[fCount];
+        for (int i = 0; i < fCount; i++) {
+            hashes[i] = NameDictionary.hashIgnoreCase(follows[i]);
+        }
+        for (int k = 0; k < names.length; k++) {
+            if (names[k] == null) continue;
+            int hash = NameKey.hash(names[k]);
+            if (!mightFollow(hash)) continue;
+            for (int i = 0; i < fCount; i++) {
+                if (hashes[i] == hash && NameDictionary.equalsIgnoreCase(follows[i], names[k])) {
+                    result.set(k);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** If this user follows the name with the given NameDictionary id (ignoring case), returns true. */
+    boolean followsId(int id) {
+        for (int i = 0; i < fCount; i++) {
+            if (NameDictionary.equalsIgnoreCase(follows[i], id)) return true;
+        }
+        return false;
+    }
+
+    /** Like followsId, when the caller already has the case-insensitive hash of the name: the Bloom
+     *  filter of the followees, if there is one, usually answers without comparing any names. */
+    boolean followsId(int id, int hash) {
+        return mightFollow(hash) && followsId(id);
+    }
     
     /** Makes this user follow the given name. If successful, returns true. 
-     *  If this user already follows the given name, or if the follows list is full, does nothing and returns false; */
+     *  If this user already follows the given name, or if the follows list is full, does nothing and returns false;
+     *  For a user of a network, the network makes the change (see Network.addFollowee), so the user
+     *  can't follow itself or a name that is not a user of the network there. */
     public boolean addFollowee (String name) {
+        if (owner != null && name != null) return owner.addFollowee(this.name, name);
+        if (!canAddFollowee(name)) return false;
+        insertFollowee(name);
+        return true;
+    }
+
+    /** Returns true if addFollowee would add the given name. Otherwise prints why not, like addFollowee,
+     *  and returns false. Lets a network log the change before it makes it. */
+    boolean canAddFollowee(String name) {
         if (name == null) {
             System.out.println("\nCan't follow a null user");
             return false;
@@ -64,38 +154,108 @@
             System.out.println("\n...Can't add " + name + "  - already in the the follows list... ");
             return false;
         }
+        return true;
+    }
+
+    /** Adds a name that passed canAddFollowee to the follows list, printing like addFollowee. */
+    void insertFollowee(String name) {
         System.out.println("\n...Adding " + name + " to the follows list...");
-        follows[fCount] = name;
+        follows[fCount] = NameDictionary.intern(name);
         fCount++;
-        return true;
+        if (followsFilter != null) followsFilter.addHash(NameKey.hash(name));
+    }
+
+    /** Appends the given name to the follows list without any checks or printing.
+     *  Used only when loading data that is already known to be valid (e.g. a saved snapshot). */
+    void appendFollowee(String name) {
+        appendFolloweeId(NameDictionary.intern(name));
+    }
+
+    /** Like appendFollowee, for a name that is already in the NameDictionary. */
+    void appendFolloweeId(int id) {
+        appendFolloweeId(id, NameDictionary.hashIgnoreCase(id));
+    }
+
+    /** Like appendFolloweeId, when the caller already has the case-insensitive hash of the name
+     *  (NameDictionary.hashIgnoreCase), for example because it appends the same name to many users. */
+    void appendFolloweeId(int id, int hash) {
+        follows[fCount] = id;
+        fCount++;
+        if (followsFilter != null) followsFilter.addHash(hash);
     }
 
     /** Removes the given name from the follows list of this user. If successful, returns true.
-     *  If the name is not in the list, does nothing and returns false. */
+     *  If the name is not in the list, does nothing and returns false.
+     *  For a user of a network, the network makes the change (see Network.removeFollowee). */
     public boolean removeFollowee(String name) {
+        if (owner != null && name != null) return owner.removeFollowee(this.name, name);
+        if (!canRemoveFollowee(name)) return false;
+        deleteFollowee(name);
+        return true;
+    }
+
+    /** Returns true if removeFollowee would remove the given name. Otherwise prints why not, like
+     *  removeFollowee, and returns false. */
+    boolean canRemoveFollowee(String name) {
         if (fCount == 0 || name == null) return false;
         for (int i = 0; i < fCount; i++) {
-            if (name.toLowerCase().equals(follows[i].toLowerCase())) {
-                follows[i] = null;
+            if (NameDictionary.equalsIgnoreCase(follows[i], name)) return true;
+        }
+        System.out.println("\n...Can't remove " + name + " because " + this.getName() + " doesn't follow him...");
+        return false;
+    }
+
+    /** Removes a name that passed canRemoveFollowee from the follows list, printing like removeFollowee. */
+    void deleteFollowee(String name) {
+        for (int i = 0; i < fCount; i++) {
+            if (NameDictionary.equalsIgnoreCase(follows[i], name)) {
                 for (int j = i; j < fCount - 1; j++) {
                     follows[j] = follows[j + 1];
                 }
-                follows[fCount - 1] = null;
                 fCount--;
+                rebuildFollowsFilter();
                 System.out.println("\n...Removing " + name + " ...");
+                return;
+            }
+        }
+    }
+
+    /** Removes the name with the given NameDictionary id (ignoring case) from the follows list,
+     *  without printing. If successful, returns true. */
+    boolean removeFolloweeId(int id) {
+        for (int i = 0; i < fCount; i++) {
+            if (NameDictionary.equalsIgnoreCase(follows[i], id)) {
+                for (int j = i; j < fCount - 1; j++) {
+                    follows[j] = follows[j + 1];
+                }
+                fCount--;
+                rebuildFollowsFilter();
                 return true;
             }
         }
-        System.out.println("\n...Can't remove " + name + " because " + this.getName() + " doesn't follow him...");
         return false;
     }
 
+    // Returns false if this user surely doesn't follow the name with the given NameKey hash
+    private boolean mightFollow(int hash) {
+        return followsFilter == null || followsFilter.mightContainHash(hash);
+    }
+
+    // Recomputes the filter after a removal (a Bloom filter can't remove a name)
+    private void rebuildFollowsFilter() {
+        if (followsFilter == null) return;
+        followsFilter.clear();
+        for (int i = 0; i < fCount; i++) {
+            followsFilter.addHash(NameDictionary.hashIgnoreCase(follows[i]));
+        }
+    }
+
     /** Counts the number of users that both this user and the other user follow.
     /*  Notice: This is the size of the intersection of the two follows lists. */
     public int countMutual(User other) {
          int counter = 0;
          for (int i = 0; i < this.fCount; i++) {
-            if (other.follows(this.follows[i])) counter++;
+            if (other.followsId(this.follows[i])) counter++;
          }
         return counter;
     }
@@ -111,7 +271,7 @@
     public String toString() {
         String ans = name + " -> ";
         for (int i = 0; i < fCount; i++) {
-            ans = ans + follows[i] + " ";
+            ans = ans + NameDictionary.name(follows[i]) + " ";
         }
         return ans;
     }
@@ -73,6 +73,10 @@ public class UserTest {
         System.out.println("\n...Checking if Alex and Orly are friends...");
         System.out.println("Alex is a friend of Orly: " + alex.isFriendOf(orly));
         System.out.println("Orly is a friend of Alex: " + orly.isFriendOf(alex));
+
+        // Tests the followsAll method
+        System.out.println("\n...Checking which of Boaz, maya, Gil, and Alex Orly follows, in one batch...");
+        System.out.println("Orly follows: " + orly.followsAll(new String[] { "Boaz", "maya", "Gil", "Alex" }));
         
         System.out.println("\nAll User class tests completed.");
     }
@@ -0,0 +1,31 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** Reads and writes non-negative ints in the variable-length (LEB128) format:
+ *  7 bits per byte, low bits first, the high bit of each byte marks "more bytes follow".
+ *  Small numbers (like user ids in a small network) take a single byte. */
+public class Varint {
+
+    /** Writes the given non-negative value to the given stream. */
+    public static void write(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Reads a value that was written by write. Throws EOFException if the stream ends in the middle. */
+    public static int read(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Stream ended in the middle of a varint");
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}